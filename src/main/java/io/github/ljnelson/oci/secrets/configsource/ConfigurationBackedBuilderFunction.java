@@ -43,6 +43,22 @@ import org.eclipse.microprofile.config.ConfigProvider;
 public final class ConfigurationBackedBuilderFunction implements Function<String, GetSecretBundleRequest.Builder> {
 
 
+    /*
+     * Static fields.
+     */
+
+
+    private static final String[] METADATA_SUFFIXES = {
+        ".opcRequestId",
+        ".secretId",
+        ".secretName",
+        ".secretVersionName",
+        ".stage",
+        ".vaultId",
+        ".versionNumber"
+    };
+
+
     /*
      * Instance fields.
      */
@@ -50,6 +66,8 @@ public final class ConfigurationBackedBuilderFunction implements Function<String
 
     private final Supplier<? extends BiFunction<? super String, ? super Class<?>, ? extends Optional<?>>> configSupplier;
 
+    private final BiFunction<? super String, ? super String, ? extends String> secretIdResolver;
+
 
     /*
      * Constructors.
@@ -111,15 +129,45 @@ public final class ConfigurationBackedBuilderFunction implements Function<String
     /**
      * Creates a new {@link ConfigurationBackedBuilderFunction}.
      *
+     * <p>Secret names are resolved by a {@linkplain SecretNameResolver#SecretNameResolver() default} {@link
+     * SecretNameResolver}, which has the {@link SecretBundleConfigSource} invoking this {@link
+     * ConfigurationBackedBuilderFunction} fetch each named secret with its own {@link com.oracle.bmc.secrets.Secrets}
+     * client.</p>
+     *
      * @param configSupplier a {@link Supplier} of a {@link BiFunction} that, when supplied with a property name and a
      * {@link Class}, returns a non-{@code null} {@link Optional} value for that property name whose value is castable
      * to the {@link Class} in question; must not be {@code null}
      *
      * @exception NullPointerException if {@code configSupplier} is {@code null}
+     *
+     * @see #ConfigurationBackedBuilderFunction(Supplier, BiFunction)
+     *
+     * @see SecretNameResolver#SecretNameResolver()
      */
     public ConfigurationBackedBuilderFunction(Supplier<? extends BiFunction<? super String, ? super Class<?>, ? extends Optional<?>>> configSupplier) {
+        this(configSupplier, new SecretNameResolver());
+    }
+
+    /**
+     * Creates a new {@link ConfigurationBackedBuilderFunction}.
+     *
+     * @param configSupplier a {@link Supplier} of a {@link BiFunction} that, when supplied with a property name and a
+     * {@link Class}, returns a non-{@code null} {@link Optional} value for that property name whose value is castable
+     * to the {@link Class} in question; must not be {@code null}
+     *
+     * @param secretIdResolver a {@link BiFunction} that, when supplied with a vault OCID and the name of a secret in
+     * that vault, returns the OCID of that secret; used only for property names configured with a {@code .secretName}
+     * rather than a {@code .secretId}; must not be {@code null}
+     *
+     * @exception NullPointerException if either argument is {@code null}
+     *
+     * @see SecretNameResolver
+     */
+    public ConfigurationBackedBuilderFunction(Supplier<? extends BiFunction<? super String, ? super Class<?>, ? extends Optional<?>>> configSupplier,
+                                              BiFunction<? super String, ? super String, ? extends String> secretIdResolver) {
         super();
         this.configSupplier = Objects.requireNonNull(configSupplier, "configSupplier");
+        this.secretIdResolver = Objects.requireNonNull(secretIdResolver, "secretIdResolver");
     }
 
 
@@ -135,6 +183,12 @@ public final class ConfigurationBackedBuilderFunction implements Function<String
      * <p>If the supplied {@code propertyName} is {@code null} or {@linkplain String#isBlank() blank}, invocations of
      * this method will return {@code null}.</p>
      *
+     * <p>If the supplied {@code propertyName} ends with one of the suffixes listed below, such as {@code .stage}, and
+     * the part before that suffix is itself configured with a {@code .secretId} or {@code .secretName}, invocations of
+     * this method will return {@code null} after at most two lookups, since such a property describes a secret rather
+     * than naming one.  A property that merely happens to end with one of these suffixes, such as {@code app.stage}
+     * when there is no {@code app.secretId} or {@code app.secretName}, is handled like any other.</p>
+     *
      * <p>Otherwise, values for the following property names will be sought using the {@link BiFunction} {@linkplain
      * #ConfigurationBackedBuilderFunction(Supplier) supplied at construction time}:</p>
      *
@@ -144,7 +198,14 @@ public final class ConfigurationBackedBuilderFunction implements Function<String
      * <em><code>propertyName</code></em><code>.opcRequestId</code>}</li>
      *
      * <li>{@linkplain GetSecretBundleRequest.Builder#secretId(String)
-     * <em><code>propertyName</code></em><code>.secretId</code>} (required)</li>
+     * <em><code>propertyName</code></em><code>.secretId</code>} (required unless the two properties below are
+     * present)</li>
+     *
+     * <li><em><code>propertyName</code></em><code>.secretName</code> and
+     * <em><code>propertyName</code></em><code>.vaultId</code> (consulted only if there is no
+     * <em><code>propertyName</code></em><code>.secretId</code>; resolved to a secret OCID using the {@code
+     * secretIdResolver} {@linkplain #ConfigurationBackedBuilderFunction(Supplier, BiFunction) supplied at construction
+     * time})</li>
      *
      * <li>{@linkplain GetSecretBundleRequest.Builder#secretVersionName(String)
      * <em><code>propertyName</code></em><code>.secretVersionName</code>}</li>
@@ -168,7 +229,9 @@ public final class ConfigurationBackedBuilderFunction implements Function<String
      *
      * @exception NullPointerException if the supplied {@code propertyName} is non-{@code null} and not {@linkplain
      * String#isBlank() blank} and a value for the <em><code>propertyName</code></em><code>.secretId</code> property
-     * name is {@code null} or {@linkplain String#isBlank() blank}
+     * name is {@code null} or {@linkplain String#isBlank() blank}, or if a value for the
+     * <em><code>propertyName</code></em><code>.secretName</code> property name is present but one for the
+     * <em><code>propertyName</code></em><code>.vaultId</code> property name is not
      *
      * @see GetSecretBundleRequest.Builder
      */
@@ -178,11 +241,20 @@ public final class ConfigurationBackedBuilderFunction implements Function<String
         if (propertyName == null || propertyName.isBlank()) {
             return null;
         }
-        GetSecretBundleRequest.Builder builder = GetSecretBundleRequest.builder();
         BiFunction<? super String, ? super Class<?>, ? extends Optional<?>> config = this.configSupplier.get();
+        if (isMetadata(propertyName, config)) {
+            return null;
+        }
+        GetSecretBundleRequest.Builder builder = GetSecretBundleRequest.builder();
         Optional<String> secretId = (Optional<String>) config.apply(propertyName + ".secretId", String.class);
         if (secretId.isPresent()) {
             builder = builder.secretId(secretId.orElseThrow());
+        } else {
+            Optional<String> secretName = (Optional<String>) config.apply(propertyName + ".secretName", String.class);
+            if (secretName.isPresent()) {
+                Optional<String> vaultId = (Optional<String>) config.apply(propertyName + ".vaultId", String.class);
+                builder = builder.secretId(this.secretIdResolver.apply(vaultId.orElse(null), secretName.orElseThrow()));
+            }
         }
         Optional<String> opcRequestId = (Optional<String>) config.apply(propertyName + ".opcRequestId", String.class);
         if (opcRequestId.isPresent()) {
@@ -200,4 +272,23 @@ public final class ConfigurationBackedBuilderFunction implements Function<String
         return builder.stage(stage.orElse(Stage.Latest));
     }
 
+
+    /*
+     * Static methods.
+     */
+
+
+    // Returns true if propertyName is, say, foo.stage, and foo is configured to be backed by a secret.
+    private static boolean isMetadata(String propertyName,
+                                      BiFunction<? super String, ? super Class<?>, ? extends Optional<?>> config) {
+        for (String suffix : METADATA_SUFFIXES) {
+            if (propertyName.endsWith(suffix)) {
+                String owner = propertyName.substring(0, propertyName.length() - suffix.length());
+                return config.apply(owner + ".secretId", String.class).isPresent()
+                    || config.apply(owner + ".secretName", String.class).isPresent();
+            }
+        }
+        return false;
+    }
+
 }
@@ -0,0 +1,547 @@
+/*
+ * Copyright © 2022–2023 Laird Nelson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package io.github.ljnelson.oci.secrets.configsource;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.channels.ClosedByInterruptException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.oracle.bmc.Region;
+import com.oracle.bmc.auth.AbstractAuthenticationDetailsProvider;
+import com.oracle.bmc.model.BmcException;
+import com.oracle.bmc.requests.BmcRequest;
+import com.oracle.bmc.secrets.Secrets;
+import com.oracle.bmc.secrets.SecretsClient;
+
+/**
+ * A {@link Supplier} of {@link Secrets} instances that spread requests across several endpoints, such as the secrets
+ * endpoints of several regions to which a vault is replicated.
+ *
+ * <p>Each {@link Secrets} instance returned by the {@link #get()} method tracks, for every endpoint it has used, the
+ * latency and the error rate of its requests as exponentially weighted moving averages.  Each request is sent first to
+ * the healthy endpoint with the lowest expected cost, which is its average latency divided by its rate of success.
+ * Endpoints that have not yet been measured are preferred over those that have, in the order they were supplied, so
+ * that every endpoint is measured early on.  Thereafter endpoints are ranked by their last known costs, however old.
+ * An endpoint whose measurements are older than a {@linkplain #FailoverSecretsSupplier(List, Duration, Duration)
+ * remeasurement interval} is stale: one request in every sixteen is sent first to the healthy endpoint with the stalest
+ * measurements, if it is not already the preferred one, and its measurements are taken afresh.  An endpoint that was
+ * slow or failing for a while can therefore win back traffic once it recovers, while sparse traffic, for which every
+ * endpoint's measurements are stale, still goes to the endpoint that was fastest when last measured.</p>
+ *
+ * <p>If a request fails because of a network error, a timeout, throttling, or a server-side error, the endpoint is
+ * considered unhealthy for a {@linkplain #FailoverSecretsSupplier(List, Duration) cooldown period} and the request is
+ * transparently retried against the next endpoint.  Other failures, such as a secret that does not exist or a request
+ * that fails the SDK's own validation, are thrown immediately without failover and without penalizing the endpoint,
+ * since every replica would produce the same result.  A failure caused by the
+ * interruption of the calling thread, such as the cancellation of a request whose {@linkplain
+ * SecretBundleConfigSource#timeout(String) deadline} has passed, is also thrown immediately; it says nothing about the
+ * endpoint, which is neither penalized nor abandoned for another.</p>
+ *
+ * <p>The {@link Secrets#setRegion(Region)}, {@link Secrets#setRegion(String)} and {@link Secrets#setEndpoint(String)}
+ * methods of returned {@link Secrets} instances throw {@link UnsupportedOperationException}s, since endpoint selection
+ * is the responsibility of this class.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson/" target="_top">Laird Nelson</a>
+ *
+ * @see #get()
+ *
+ * @see SecretBundleConfigSource#SecretBundleConfigSource(Supplier, java.util.function.Function)
+ */
+public final class FailoverSecretsSupplier implements Supplier<Secrets> {
+
+
+    /*
+     * Instance fields.
+     */
+
+
+    private final List<Supplier<? extends Secrets>> suppliers;
+
+    private final long cooldownNanos;
+
+    private final long remeasureNanos;
+
+
+    /*
+     * Constructors.
+     */
+
+
+    /**
+     * Creates a new {@link FailoverSecretsSupplier} that will use the secrets endpoints of the supplied {@link Region}s,
+     * authenticated using information from the default OCI configuration file.
+     *
+     * @param regions the {@link Region}s to use, in order of initial preference; must not be {@code null} or empty
+     *
+     * @exception NullPointerException if {@code regions} is {@code null} or contains {@code null}
+     *
+     * @exception IllegalArgumentException if {@code regions} is empty
+     *
+     * @see #FailoverSecretsSupplier(Supplier, Supplier, Collection)
+     *
+     * @see SimpleSecretsSupplier#SimpleSecretsSupplier()
+     */
+    public FailoverSecretsSupplier(Collection<? extends Region> regions) {
+        this(SecretsClient::builder, SimpleSecretsSupplier::configFileAdp, regions);
+    }
+
+    /**
+     * Creates a new {@link FailoverSecretsSupplier} that will use the secrets endpoints of the supplied {@link
+     * Region}s.
+     *
+     * @param builderSupplier a {@link Supplier} of non-{@code null} {@link SecretsClient.Builder} instances; must not
+     * be {@code null}
+     *
+     * @param adpSupplier a {@link Supplier} of {@link AbstractAuthenticationDetailsProvider} instances; must not be
+     * {@code null}
+     *
+     * @param regions the {@link Region}s to use, in order of initial preference; must not be {@code null} or empty
+     *
+     * @exception NullPointerException if any argument is {@code null}, or if {@code regions} contains {@code null}
+     *
+     * @exception IllegalArgumentException if {@code regions} is empty
+     *
+     * @see #FailoverSecretsSupplier(List, Duration)
+     *
+     * @see SimpleSecretsSupplier#SimpleSecretsSupplier(Supplier, Supplier)
+     */
+    public FailoverSecretsSupplier(Supplier<? extends SecretsClient.Builder> builderSupplier,
+                                   Supplier<? extends AbstractAuthenticationDetailsProvider> adpSupplier,
+                                   Collection<? extends Region> regions) {
+        this(suppliers(builderSupplier, adpSupplier, regions), Duration.ofSeconds(30L));
+    }
+
+    /**
+     * Creates a new {@link FailoverSecretsSupplier}.
+     *
+     * @param suppliers a {@link List} of {@link Supplier}s, each of which returns a {@link Secrets} instance bound to a
+     * distinct endpoint, in order of initial preference; must not be {@code null} or empty
+     *
+     * @param cooldown the length of time an endpoint is avoided after a failure; must not be {@code null} or negative
+     *
+     * @exception NullPointerException if either argument is {@code null} or if {@code suppliers} contains {@code null}
+     *
+     * @exception IllegalArgumentException if {@code suppliers} is empty or {@code cooldown} is negative
+     *
+     * @see #FailoverSecretsSupplier(List, Duration, Duration)
+     */
+    public FailoverSecretsSupplier(List<? extends Supplier<? extends Secrets>> suppliers, Duration cooldown) {
+        this(suppliers, cooldown, Duration.ofMinutes(1L));
+    }
+
+    /**
+     * Creates a new {@link FailoverSecretsSupplier}.
+     *
+     * @param suppliers a {@link List} of {@link Supplier}s, each of which returns a {@link Secrets} instance bound to a
+     * distinct endpoint, in order of initial preference; must not be {@code null} or empty
+     *
+     * @param cooldown the length of time an endpoint is avoided after a failure; must not be {@code null} or negative
+     *
+     * @param remeasureInterval the age after which an endpoint's latency and error rate measurements are stale, so
+     * that it is occasionally tried again and measured afresh; must not be {@code null} and must be positive
+     *
+     * @exception NullPointerException if any argument is {@code null} or if {@code suppliers} contains {@code null}
+     *
+     * @exception IllegalArgumentException if {@code suppliers} is empty, {@code cooldown} is negative, or {@code
+     * remeasureInterval} is not positive
+     */
+    public FailoverSecretsSupplier(List<? extends Supplier<? extends Secrets>> suppliers,
+                                   Duration cooldown,
+                                   Duration remeasureInterval) {
+        super();
+        this.suppliers = List.copyOf(suppliers);
+        if (this.suppliers.isEmpty()) {
+            throw new IllegalArgumentException("suppliers.isEmpty()");
+        } else if (cooldown.isNegative()) {
+            throw new IllegalArgumentException("cooldown: " + cooldown);
+        } else if (remeasureInterval.isNegative() || remeasureInterval.isZero()) {
+            throw new IllegalArgumentException("remeasureInterval: " + remeasureInterval);
+        }
+        this.cooldownNanos = cooldown.toNanos();
+        this.remeasureNanos = remeasureInterval.toNanos();
+    }
+
+
+    /*
+     * Instance methods.
+     */
+
+
+    /**
+     * Returns a new {@link Secrets} instance that routes each request to the fastest healthy endpoint, failing over to
+     * others as described in the {@linkplain FailoverSecretsSupplier class documentation}.
+     *
+     * <p>The underlying {@link Secrets} instances are created lazily, the first time each endpoint is needed, and are
+     * all closed when the returned {@link Secrets} instance is {@linkplain Secrets#close() closed}.</p>
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link Secrets} instance
+     */
+    @Override // Supplier
+    public final Secrets get() {
+        return (Secrets) Proxy.newProxyInstance(Secrets.class.getClassLoader(),
+                                                new Class<?>[] { Secrets.class },
+                                                new Handler(this.suppliers, this.cooldownNanos, this.remeasureNanos));
+    }
+
+
+    /*
+     * Static methods.
+     */
+
+
+    private static List<Supplier<? extends Secrets>> suppliers(Supplier<? extends SecretsClient.Builder> builderSupplier,
+                                                                Supplier<? extends AbstractAuthenticationDetailsProvider> adpSupplier,
+                                                                Collection<? extends Region> regions) {
+        Objects.requireNonNull(builderSupplier, "builderSupplier");
+        Objects.requireNonNull(adpSupplier, "adpSupplier");
+        List<Supplier<? extends Secrets>> suppliers = new ArrayList<>(regions.size());
+        for (Region region : regions) {
+            Objects.requireNonNull(region, "region");
+            suppliers.add(new SimpleSecretsSupplier(() -> builderSupplier.get().region(region), adpSupplier));
+        }
+        return suppliers;
+    }
+
+    // Returns true if e was caused by the interruption of the calling thread rather than by the endpoint.
+    private static boolean interrupted(RuntimeException e) {
+        if (Thread.currentThread().isInterrupted()) {
+            return true;
+        }
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof InterruptedException
+                || t instanceof InterruptedIOException
+                || t instanceof ClosedByInterruptException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns true only for failures that say something about the endpoint: timeouts, throttling, server-side errors,
+    // and I/O failures such as refused or reset connections.  Anything else, such as an exception thrown by the SDK's
+    // client-side validation of a request, would recur at every endpoint.
+    private static boolean failoverEligible(RuntimeException e) {
+        if (e instanceof BmcException bmcException
+            && (bmcException.isTimeout() || bmcException.getStatusCode() == 429 || bmcException.getStatusCode() >= 500)) {
+            return true;
+        }
+        // A BmcException reporting that no response was received carries the I/O failure as its cause.
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /*
+     * Inner and nested classes.
+     */
+
+
+    private static final class Handler implements InvocationHandler {
+
+        private static final int PROBE_PERIOD = 16;
+
+        private final List<Endpoint> endpoints;
+
+        private final AtomicLong requests;
+
+        private Handler(List<? extends Supplier<? extends Secrets>> suppliers, long cooldownNanos, long remeasureNanos) {
+            super();
+            List<Endpoint> endpoints = new ArrayList<>(suppliers.size());
+            for (int i = 0; i < suppliers.size(); i++) {
+                endpoints.add(new Endpoint(i, suppliers.get(i), cooldownNanos, remeasureNanos));
+            }
+            this.endpoints = List.copyOf(endpoints);
+            this.requests = new AtomicLong();
+        }
+
+        @Override // InvocationHandler
+        public Object invoke(Object proxy, Method method, Object[] arguments) throws Throwable {
+            switch (method.getName()) {
+            case "equals":
+                if (method.getParameterCount() == 1 && method.getParameterTypes()[0] == Object.class) {
+                    return proxy == arguments[0];
+                }
+                break;
+            case "hashCode":
+                if (method.getParameterCount() == 0) {
+                    return System.identityHashCode(proxy);
+                }
+                break;
+            case "toString":
+                if (method.getParameterCount() == 0) {
+                    return "FailoverSecrets" + this.endpoints;
+                }
+                break;
+            case "close":
+                if (method.getParameterCount() == 0) {
+                    this.close();
+                    return null;
+                }
+                break;
+            case "setEndpoint":
+            case "setRegion":
+                throw new UnsupportedOperationException(method.getName());
+            default:
+                break;
+            }
+            if (method.getParameterCount() == 1 && BmcRequest.class.isAssignableFrom(method.getParameterTypes()[0])) {
+                return this.invokeWithFailover(method, arguments);
+            }
+            // getEndpoint(), getPaginators() and the like: answer for the currently preferred endpoint.
+            return invoke(this.ranked(false).get(0).secrets(), method, arguments);
+        }
+
+        private Object invokeWithFailover(Method method, Object[] arguments) {
+            RuntimeException failure = null;
+            boolean probe = this.requests.getAndIncrement() % PROBE_PERIOD == 0L;
+            for (Endpoint endpoint : this.ranked(probe)) {
+                long start = System.nanoTime();
+                try {
+                    Object returnValue = invoke(endpoint.secrets(), method, arguments);
+                    endpoint.success(System.nanoTime() - start);
+                    return returnValue;
+                } catch (RuntimeException e) {
+                    if (interrupted(e)) {
+                        // Our caller gave up (see SecretBundleConfigSource#timeout(String)); the endpoint is blameless.
+                        if (failure != null) {
+                            e.addSuppressed(failure);
+                        }
+                        throw e;
+                    } else if (!failoverEligible(e)) {
+                        if (e instanceof BmcException) {
+                            // The endpoint answered; the request itself was bad.
+                            endpoint.success(System.nanoTime() - start);
+                        }
+                        if (failure != null) {
+                            e.addSuppressed(failure);
+                        }
+                        throw e;
+                    }
+                    endpoint.failure();
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            throw failure;
+        }
+
+        // If probe is true, the healthy endpoint with the stalest measurements, if any are stale, is moved to the front.
+        // Unmeasured endpoints need no probe, as they already rank first among the healthy.
+        private List<Endpoint> ranked(boolean probe) {
+            long now = System.nanoTime();
+            List<Endpoint> ranked = new ArrayList<>(this.endpoints);
+            ranked.sort(Comparator.comparing((Endpoint e) -> !e.healthy(now))
+                        .thenComparingDouble(Endpoint::expectedCostNanos)
+                        .thenComparingInt(Endpoint::index));
+            if (probe) {
+                Endpoint stalest = null;
+                for (Endpoint e : ranked.subList(1, ranked.size())) {
+                    if (e.healthy(now)
+                        && e.expectedCostNanos() > 0.0
+                        && e.stale(now)
+                        && (stalest == null || e.measuredAt() - stalest.measuredAt() < 0L)) {
+                        stalest = e;
+                    }
+                }
+                if (stalest != null) {
+                    ranked.remove(stalest);
+                    ranked.add(0, stalest);
+                }
+            }
+            return ranked;
+        }
+
+        private void close() throws Exception {
+            Exception failure = null;
+            for (Endpoint endpoint : this.endpoints) {
+                try {
+                    endpoint.close();
+                } catch (Exception e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private static Object invoke(Secrets secrets, Method method, Object[] arguments) {
+            try {
+                return method.invoke(secrets, arguments);
+            } catch (InvocationTargetException invocationTargetException) {
+                Throwable cause = invocationTargetException.getCause();
+                if (cause instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                } else if (cause instanceof Error error) {
+                    throw error;
+                }
+                throw new IllegalStateException(cause.getMessage(), cause);
+            } catch (IllegalAccessException illegalAccessException) {
+                throw new IllegalStateException(illegalAccessException.getMessage(), illegalAccessException);
+            }
+        }
+
+    }
+
+    private static final class Endpoint {
+
+        private static final VarHandle SECRETS;
+
+        static {
+            try {
+                SECRETS = MethodHandles.lookup().findVarHandle(Endpoint.class, "secrets", Secrets.class);
+            } catch (final NoSuchFieldException | IllegalAccessException reflectiveOperationException) {
+                throw new ExceptionInInitializerError(reflectiveOperationException);
+            }
+        }
+
+        private final int index;
+
+        private final Supplier<? extends Secrets> supplier;
+
+        private final long cooldownNanos;
+
+        private final long remeasureNanos;
+
+        private volatile Secrets secrets;
+
+        // 0L means "not yet measured", which sorts first so that unmeasured endpoints get measured.
+        private volatile long averageLatencyNanos;
+
+        // The moving average of 1.0 for each failed request and 0.0 for each successful one.
+        private volatile double errorRate;
+
+        private volatile long measuredAt;
+
+        private volatile long unhealthyUntil;
+
+        private volatile boolean unhealthy;
+
+        private Endpoint(int index, Supplier<? extends Secrets> supplier, long cooldownNanos, long remeasureNanos) {
+            super();
+            this.index = index;
+            this.supplier = Objects.requireNonNull(supplier, "supplier");
+            this.cooldownNanos = cooldownNanos;
+            this.remeasureNanos = remeasureNanos;
+            this.measuredAt = System.nanoTime() - remeasureNanos; // volatile write; never measured, so already stale
+        }
+
+        private int index() {
+            return this.index;
+        }
+
+        // The expected time to a successful response: average latency times the expected number of attempts, as last
+        // measured.  Missing measurements count as zero, so that the endpoint is measured.
+        private double expectedCostNanos() {
+            if (this.averageLatencyNanos == 0L) { // volatile read
+                return 0.0;
+            }
+            return this.averageLatencyNanos / (1.0 - Math.min(this.errorRate, 0.95)); // volatile reads
+        }
+
+        private long measuredAt() {
+            return this.measuredAt; // volatile read
+        }
+
+        private boolean stale(long now) {
+            return now - this.measuredAt >= this.remeasureNanos; // volatile read
+        }
+
+        private boolean healthy(long now) {
+            return !this.unhealthy || now - this.unhealthyUntil >= 0L; // volatile reads
+        }
+
+        private void success(long latencyNanos) {
+            long now = System.nanoTime();
+            long average = this.averageLatencyNanos; // volatile read
+            // Races between concurrent updates lose a sample at worst, which is fine for a moving average.
+            if (average == 0L || this.stale(now)) {
+                this.averageLatencyNanos = Math.max(1L, latencyNanos); // volatile write
+                this.errorRate = 0.0; // volatile write
+            } else {
+                this.averageLatencyNanos = Math.max(1L, average - average / 5L + latencyNanos / 5L); // volatile write
+                this.errorRate = this.errorRate * 0.8; // volatile read and write
+            }
+            this.measuredAt = now; // volatile write
+            this.unhealthy = false; // volatile write
+        }
+
+        private void failure() {
+            long now = System.nanoTime();
+            this.errorRate = this.stale(now) ? 1.0 : this.errorRate * 0.8 + 0.2; // volatile read and write
+            this.measuredAt = now; // volatile write
+            this.unhealthyUntil = now + this.cooldownNanos; // volatile write
+            this.unhealthy = true; // volatile write
+        }
+
+        private Secrets secrets() {
+            Secrets secrets = this.secrets; // volatile read
+            if (secrets == null) {
+                secrets = this.supplier.get();
+                if (!SECRETS.compareAndSet(this, null, Objects.requireNonNull(secrets, "supplier.get() == null"))) { // volatile write
+                    try {
+                        secrets.close();
+                    } catch (Exception e) {
+                        // Never used; nothing to clean up beyond best effort.
+                    }
+                    return this.secrets; // volatile read
+                }
+            }
+            return secrets;
+        }
+
+        private void close() throws Exception {
+            Secrets secrets = this.secrets; // volatile read
+            if (secrets != null) {
+                secrets.close();
+            }
+        }
+
+        @Override // Object
+        public String toString() {
+            Secrets secrets = this.secrets; // volatile read
+            return "Endpoint[" + this.index + (secrets == null ? "" : ", " + secrets.getEndpoint())
+                + ", averageLatencyNanos=" + this.averageLatencyNanos + ", errorRate=" + this.errorRate
+                + ", unhealthy=" + this.unhealthy + "]";
+        }
+
+    }
+
+}
@@ -0,0 +1,599 @@
+/*
+ * Copyright © 2022–2023 Laird Nelson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package io.github.ljnelson.oci.secrets.configsource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.System.Logger;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import com.oracle.bmc.secrets.model.Base64SecretBundleContentDetails;
+import com.oracle.bmc.secrets.model.SecretBundle;
+import com.oracle.bmc.secrets.requests.GetSecretBundleByNameRequest;
+import com.oracle.bmc.secrets.requests.GetSecretBundleRequest;
+
+/**
+ * A cache of {@link SecretBundle}s shared by every process on a node that maps the same file, so that co-located JVMs
+ * fetch each secret from the vault once between them rather than once each.
+ *
+ * <p>The file is divided into fixed-size slots, and each cache key is hashed to exactly one of them.  Each slot holds
+ * the most recently fetched bundle for its key, encrypted with AES-GCM under a {@link SecretKey} that every
+ * participating process must share; bundles are never written to the file in the clear.  Two keys that hash to the
+ * same slot evict each other.</p>
+ *
+ * <p>Bundles whose Base64 content does not fit in a slot, and bundles whose content is not Base64 at all, are not
+ * cached.  Instead the slot records, for one time-to-live, that its key's bundle is uncacheable, so that every process
+ * that wants it, including those already waiting for it, fetches it from the vault at once rather than waiting on a
+ * lease.</p>
+ *
+ * <p>Readers never lock.  Each slot is guarded by a sequence number that a writer makes odd before, and even after,
+ * it modifies the slot, so a reader that observes the same even sequence number before and after copying a slot knows
+ * its copy is consistent.  The authenticated encryption is a second line of defense against torn or corrupt
+ * slots.</p>
+ *
+ * <p>Refreshes are coordinated by a per-slot lease.  When a process finds a slot missing or stale, it attempts to
+ * acquire the slot's lease with an atomic compare-and-set operation on the mapped file.  The process that succeeds is
+ * the leader: it fetches the secret from the vault, stores it in the slot, and releases the lease.  Other processes
+ * wait for the leader's result, but no longer than their own deadlines, and fetch the secret themselves only if none
+ * appears before the lease expires.  A process that dies while writing a slot leaves its sequence number odd; the next
+ * leader of that slot, which can only have acquired the lease because the dead writer's lease expired, reclaims the
+ * slot and writes it afresh.</p>
+ *
+ * <p>Instances of this class are intended to be long-lived and shared; a typical {@link SecretBundleConfigSource}
+ * subclass stores one in a {@code static} field and returns it from its {@link
+ * SecretBundleConfigSource#nodeSecretBundleCache()} method.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson/" target="_top">Laird Nelson</a>
+ *
+ * @see SecretBundleConfigSource#nodeSecretBundleCache()
+ */
+public final class NodeSecretBundleCache {
+
+
+    /*
+     * Static fields.
+     */
+
+
+    private static final Logger LOGGER = System.getLogger(NodeSecretBundleCache.class.getName());
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final long MAGIC = 0x4F43495342434331L; // "OCISBCC1"
+
+    private static final int HEADER_SIZE = 64;
+
+    // Header layout.
+
+    private static final int MAGIC_OFFSET = 0;
+
+    private static final int SLOT_COUNT_OFFSET = 8;
+
+    private static final int SLOT_SIZE_OFFSET = 16;
+
+    // Slot layout.  All long fields are 8-byte aligned so they may be accessed atomically.
+
+    private static final int SEQUENCE_OFFSET = 0;
+
+    private static final int LEASE_OFFSET = 8;
+
+    private static final int KEY_HASH_OFFSET = 16;
+
+    private static final int FETCHED_AT_OFFSET = 24;
+
+    private static final int KEY_LENGTH_OFFSET = 32;
+
+    private static final int PAYLOAD_LENGTH_OFFSET = 36;
+
+    private static final int DATA_OFFSET = 40;
+
+    private static final int IV_LENGTH = 12;
+
+    private static final int TAG_BITS = 128;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Returned by read(int, long, byte[]) when the slot records that its key's bundle cannot be cached.
+    private static final SecretBundle UNCACHEABLE = SecretBundle.builder().build();
+
+
+    /*
+     * Instance fields.
+     */
+
+
+    private final MappedByteBuffer buffer;
+
+    private final SecretKey key;
+
+    private final int slotCount;
+
+    private final int slotSize;
+
+    private final long timeToLiveMillis;
+
+    private final long leaseMillis;
+
+
+    /*
+     * Constructors.
+     */
+
+
+    /**
+     * Creates a new {@link NodeSecretBundleCache} with 1024 slots of 32 kibibytes each, a ten-second lease, and the
+     * supplied time-to-live.
+     *
+     * @param path the {@link Path} of the shared file, which will be created, readable and writable only by its owner
+     * where the file system permits, if it does not exist; must not be {@code null}
+     *
+     * @param key the AES {@link SecretKey} that all participating processes use; must not be {@code null}
+     *
+     * @param timeToLive how long a cached bundle remains fresh; must not be {@code null} or negative
+     *
+     * @exception NullPointerException if any argument is {@code null}
+     *
+     * @exception IllegalArgumentException if {@code timeToLive} is negative
+     *
+     * @exception IllegalStateException if the file exists but was created with a different slot layout
+     *
+     * @exception UncheckedIOException if the file could not be created or mapped
+     *
+     * @see #NodeSecretBundleCache(Path, SecretKey, Duration, Duration, int, int)
+     */
+    public NodeSecretBundleCache(Path path, SecretKey key, Duration timeToLive) {
+        this(path, key, timeToLive, Duration.ofSeconds(10L), 1024, 32 * 1024);
+    }
+
+    /**
+     * Creates a new {@link NodeSecretBundleCache}.
+     *
+     * @param path the {@link Path} of the shared file, which will be created, readable and writable only by its owner
+     * where the file system permits, if it does not exist; must not be {@code null}
+     *
+     * @param key the AES {@link SecretKey} that all participating processes use; must not be {@code null}
+     *
+     * @param timeToLive how long a cached bundle remains fresh; must not be {@code null} or negative
+     *
+     * @param lease how long a leader may take to refresh a slot before other processes stop waiting for it; must not
+     * be {@code null} and must be positive
+     *
+     * @param slotCount the number of slots; must be positive and must be the same in every participating process
+     *
+     * @param slotSize the size of each slot in bytes; will be rounded up to a multiple of 8; must be large enough to
+     * hold a small bundle and must be the same in every participating process
+     *
+     * @exception NullPointerException if any argument is {@code null}
+     *
+     * @exception IllegalArgumentException if any argument is out of range
+     *
+     * @exception IllegalStateException if the file exists but was created with a different slot layout
+     *
+     * @exception UncheckedIOException if the file could not be created or mapped
+     */
+    public NodeSecretBundleCache(Path path,
+                                 SecretKey key,
+                                 Duration timeToLive,
+                                 Duration lease,
+                                 int slotCount,
+                                 int slotSize) {
+        super();
+        this.key = Objects.requireNonNull(key, "key");
+        if (timeToLive.isNegative()) {
+            throw new IllegalArgumentException("timeToLive: " + timeToLive);
+        } else if (lease.isNegative() || lease.isZero()) {
+            throw new IllegalArgumentException("lease: " + lease);
+        } else if (slotCount <= 0) {
+            throw new IllegalArgumentException("slotCount: " + slotCount);
+        }
+        slotSize = (slotSize + 7) & ~7;
+        if (slotSize < DATA_OFFSET + 256) {
+            throw new IllegalArgumentException("slotSize: " + slotSize);
+        } else if ((long) slotCount * slotSize > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IllegalArgumentException("slotCount * slotSize: " + (long) slotCount * slotSize);
+        }
+        this.slotCount = slotCount;
+        this.slotSize = slotSize;
+        this.timeToLiveMillis = timeToLive.toMillis();
+        this.leaseMillis = lease.toMillis();
+        int size = HEADER_SIZE + slotCount * slotSize;
+        Set<OpenOption> options = Set.of(StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileAttribute<?>[] attributes = FileSystems.getDefault().supportedFileAttributeViews().contains("posix") ?
+            new FileAttribute<?>[] { PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")) } :
+            new FileAttribute<?>[0];
+        try (FileChannel channel = FileChannel.open(path, options, attributes)) {
+            // Mapping beyond the end of the file extends it with zeros, which is a valid empty layout.
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, size);
+        } catch (IOException ioException) {
+            throw new UncheckedIOException(ioException.getMessage(), ioException);
+        }
+        long magic = (long) LONGS.getVolatile(this.buffer, MAGIC_OFFSET);
+        if (magic == 0L) {
+            // Every participant writes identical layout values, so racing initializers are harmless.
+            LONGS.setVolatile(this.buffer, SLOT_COUNT_OFFSET, (long) slotCount);
+            LONGS.setVolatile(this.buffer, SLOT_SIZE_OFFSET, (long) slotSize);
+            LONGS.compareAndSet(this.buffer, MAGIC_OFFSET, 0L, MAGIC);
+            magic = (long) LONGS.getVolatile(this.buffer, MAGIC_OFFSET);
+        }
+        if (magic != MAGIC
+            || (long) LONGS.getVolatile(this.buffer, SLOT_COUNT_OFFSET) != slotCount
+            || (long) LONGS.getVolatile(this.buffer, SLOT_SIZE_OFFSET) != slotSize) {
+            throw new IllegalStateException(path + " has an incompatible layout");
+        }
+    }
+
+
+    /*
+     * Instance methods.
+     */
+
+
+    /**
+     * Returns a {@link SecretBundle} for the supplied {@code request}, from the shared file if a fresh one is present
+     * there, and otherwise from the supplied {@code fetcher}, coordinating with other processes as described in the
+     * {@linkplain NodeSecretBundleCache class documentation}.
+     *
+     * <p>Calling this method is equivalent to calling {@link #get(String, GetSecretBundleRequest, Duration, Supplier)
+     * get(principal, request, null, fetcher)}.</p>
+     *
+     * @param principal an opaque identifier for the authentication principal, included in the cache key; may be
+     * {@code null}
+     *
+     * @param request the {@link GetSecretBundleRequest} identifying the secret; must not be {@code null}
+     *
+     * @param fetcher a {@link Supplier} that fetches the {@link SecretBundle} from the vault; must not be {@code null}
+     *
+     * @return a {@link SecretBundle}
+     *
+     * @exception NullPointerException if {@code request} or {@code fetcher} is {@code null}
+     *
+     * @exception IllegalStateException if the calling thread is interrupted while waiting for another process
+     *
+     * @see #get(String, GetSecretBundleRequest, Duration, Supplier)
+     */
+    public final SecretBundle get(String principal, GetSecretBundleRequest request, Supplier<? extends SecretBundle> fetcher) {
+        return this.get(principal, request, null, fetcher);
+    }
+
+    /**
+     * Returns a {@link SecretBundle} for the supplied {@code request}, from the shared file if a fresh one is present
+     * there, and otherwise from the supplied {@code fetcher}, coordinating with other processes as described in the
+     * {@linkplain NodeSecretBundleCache class documentation}.
+     *
+     * <p>This method is safe for concurrent use by multiple threads and processes.</p>
+     *
+     * @param principal an opaque identifier for the authentication principal, included in the cache key; may be
+     * {@code null}
+     *
+     * @param request the {@link GetSecretBundleRequest} identifying the secret; must not be {@code null}
+     *
+     * @param timeout the maximum length of time to wait for another process to fetch the secret; may be {@code null}
+     * in which case the wait is bounded only by the lease; a zero or negative {@link Duration} is treated as if it
+     * were {@code null}
+     *
+     * @param fetcher a {@link Supplier} that fetches the {@link SecretBundle} from the vault; must not be {@code null}
+     *
+     * @return a {@link SecretBundle}
+     *
+     * @exception NullPointerException if {@code request} or {@code fetcher} is {@code null}
+     *
+     * @exception IllegalStateException if the calling thread is interrupted while waiting for another process, or if
+     * {@code timeout} elapses first
+     */
+    public final SecretBundle get(String principal,
+                                  GetSecretBundleRequest request,
+                                  Duration timeout,
+                                  Supplier<? extends SecretBundle> fetcher) {
+        byte[] cacheKey = (principal + "\n" + request.getSecretId() + "\n" + request.getVersionNumber() + "\n"
+                           + request.getSecretVersionName() + "\n" + request.getStage()).getBytes(StandardCharsets.UTF_8);
+        return this.get(cacheKey, "secret " + request.getSecretId(), timeout, fetcher);
+    }
+
+    /**
+     * Returns a {@link SecretBundle} for the supplied by-name {@code request}, from the shared file if a fresh one is
+     * present there, and otherwise from the supplied {@code fetcher}, coordinating with other processes as described in
+     * the {@linkplain NodeSecretBundleCache class documentation}.
+     *
+     * <p>Bundles fetched by name are cached separately from those fetched by OCID.</p>
+     *
+     * <p>This method is safe for concurrent use by multiple threads and processes.</p>
+     *
+     * @param principal an opaque identifier for the authentication principal, included in the cache key; may be
+     * {@code null}
+     *
+     * @param request the {@link GetSecretBundleByNameRequest} identifying the secret; must not be {@code null}
+     *
+     * @param timeout the maximum length of time to wait for another process to fetch the secret; may be {@code null}
+     * in which case the wait is bounded only by the lease; a zero or negative {@link Duration} is treated as if it
+     * were {@code null}
+     *
+     * @param fetcher a {@link Supplier} that fetches the {@link SecretBundle} from the vault; must not be {@code null}
+     *
+     * @return a {@link SecretBundle}
+     *
+     * @exception NullPointerException if {@code request} or {@code fetcher} is {@code null}
+     *
+     * @exception IllegalStateException if the calling thread is interrupted while waiting for another process, or if
+     * {@code timeout} elapses first
+     */
+    public final SecretBundle get(String principal,
+                                  GetSecretBundleByNameRequest request,
+                                  Duration timeout,
+                                  Supplier<? extends SecretBundle> fetcher) {
+        // More lines than a by-OCID key has, so the two kinds never collide.
+        byte[] cacheKey = (principal + "\nbyName\n" + request.getVaultId() + "\n" + request.getSecretName() + "\n"
+                           + request.getVersionNumber() + "\n" + request.getSecretVersionName() + "\n"
+                           + request.getStage()).getBytes(StandardCharsets.UTF_8);
+        return this.get(cacheKey, "secret " + request.getSecretName() + " in vault " + request.getVaultId(), timeout, fetcher);
+    }
+
+    private SecretBundle get(byte[] cacheKey, String description, Duration timeout, Supplier<? extends SecretBundle> fetcher) {
+        Objects.requireNonNull(fetcher, "fetcher");
+        long keyHash = hash(cacheKey);
+        int slot = HEADER_SIZE + (int) Long.remainderUnsigned(keyHash, this.slotCount) * this.slotSize;
+        long now = System.currentTimeMillis();
+        long waitUntil = now + this.leaseMillis;
+        long deadline = timeout == null || timeout.isNegative() || timeout.isZero() ? waitUntil : now + timeout.toMillis();
+        while (true) {
+            SecretBundle secretBundle = this.read(slot, keyHash, cacheKey);
+            if (secretBundle == UNCACHEABLE) {
+                // Waiting on a leader would be pointless; it could not share its result.
+                return fetcher.get();
+            } else if (secretBundle != null) {
+                return secretBundle;
+            }
+            long lease = this.acquireLease(slot);
+            if (lease != 0L) {
+                try {
+                    secretBundle = fetcher.get();
+                    this.write(slot, keyHash, cacheKey, secretBundle);
+                    return secretBundle;
+                } finally {
+                    LONGS.compareAndSet(this.buffer, slot + LEASE_OFFSET, lease, 0L);
+                }
+            }
+            now = System.currentTimeMillis();
+            if (deadline - waitUntil < 0L && now - deadline >= 0L) {
+                throw new IllegalStateException("Timed out after " + timeout + " awaiting another process's fetch of "
+                                                + description);
+            } else if (now - waitUntil >= 0L) {
+                // The leader is slow or gone; don't wait any longer.
+                return fetcher.get();
+            }
+            try {
+                Thread.sleep(10L);
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(interruptedException.getMessage(), interruptedException);
+            }
+        }
+    }
+
+    // Returns a non-zero lease token if this caller is now the leader for the slot, or 0L otherwise.
+    private long acquireLease(int slot) {
+        long now = System.currentTimeMillis();
+        long lease = (long) LONGS.getVolatile(this.buffer, slot + LEASE_OFFSET);
+        if (lease != 0L && lease - now > 0L) {
+            return 0L;
+        }
+        // The token is the lease's expiry time, made odd (hence non-zero) and unique enough to release safely.
+        long newLease = (now + this.leaseMillis) | 1L;
+        return LONGS.compareAndSet(this.buffer, slot + LEASE_OFFSET, lease, newLease) ? newLease : 0L;
+    }
+
+    private SecretBundle read(int slot, long keyHash, byte[] cacheKey) {
+        for (int attempt = 0; attempt < 4; attempt++) {
+            long sequence = (long) LONGS.getAcquire(this.buffer, slot + SEQUENCE_OFFSET);
+            if ((sequence & 1L) != 0L) {
+                Thread.onSpinWait();
+                continue;
+            }
+            long storedHash = (long) LONGS.get(this.buffer, slot + KEY_HASH_OFFSET);
+            long fetchedAt = (long) LONGS.get(this.buffer, slot + FETCHED_AT_OFFSET);
+            int keyLength = this.buffer.getInt(slot + KEY_LENGTH_OFFSET);
+            int payloadLength = this.buffer.getInt(slot + PAYLOAD_LENGTH_OFFSET);
+            if (storedHash != keyHash
+                || keyLength != cacheKey.length
+                || payloadLength != 0 && payloadLength <= IV_LENGTH
+                || DATA_OFFSET + keyLength + payloadLength > this.slotSize) {
+                return null;
+            }
+            byte[] data = new byte[keyLength + payloadLength];
+            this.buffer.get(slot + DATA_OFFSET, data);
+            VarHandle.acquireFence();
+            if ((long) LONGS.getVolatile(this.buffer, slot + SEQUENCE_OFFSET) != sequence) {
+                continue;
+            }
+            if (System.currentTimeMillis() - fetchedAt > this.timeToLiveMillis
+                || !Arrays.equals(data, 0, keyLength, cacheKey, 0, keyLength)) {
+                return null;
+            } else if (payloadLength == 0) {
+                return UNCACHEABLE;
+            }
+            try {
+                return decode(this.decrypt(cacheKey, Arrays.copyOfRange(data, keyLength, data.length)));
+            } catch (GeneralSecurityException | IOException | RuntimeException e) {
+                // Written with a different key, or corrupt; treat as a miss and overwrite it.
+                LOGGER.log(Logger.Level.DEBUG, e.getMessage(), e);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    // Must be called only while holding the slot's lease.
+    private void write(int slot, long keyHash, byte[] cacheKey, SecretBundle secretBundle) {
+        byte[] payload;
+        try {
+            byte[] plaintext = encode(secretBundle);
+            // An empty payload marks the bundle as uncacheable.
+            payload = plaintext == null ? new byte[0] : this.encrypt(cacheKey, plaintext);
+        } catch (GeneralSecurityException | IOException e) {
+            LOGGER.log(Logger.Level.WARNING, e.getMessage(), e);
+            payload = new byte[0];
+        }
+        if (DATA_OFFSET + cacheKey.length + payload.length > this.slotSize) {
+            // Too big to share.
+            payload = new byte[0];
+            if (DATA_OFFSET + cacheKey.length > this.slotSize) {
+                // Too big even to mark as such.
+                return;
+            }
+        }
+        long sequence = (long) LONGS.getVolatile(this.buffer, slot + SEQUENCE_OFFSET);
+        // An odd sequence number here was left by a writer whose lease has expired, most likely because its process
+        // died mid-write.  Move past it to a new odd number, so that if that writer is merely slow, its release below
+        // fails; any bytes it still writes are caught by the authenticated encryption.
+        long writing = (sequence & 1L) != 0L ? sequence + 2L : sequence + 1L;
+        if (!LONGS.compareAndSet(this.buffer, slot + SEQUENCE_OFFSET, sequence, writing)) {
+            // Someone else is writing this slot (their lease must have expired on them); let them.
+            return;
+        }
+        LONGS.set(this.buffer, slot + KEY_HASH_OFFSET, keyHash);
+        LONGS.set(this.buffer, slot + FETCHED_AT_OFFSET, System.currentTimeMillis());
+        this.buffer.putInt(slot + KEY_LENGTH_OFFSET, cacheKey.length);
+        this.buffer.putInt(slot + PAYLOAD_LENGTH_OFFSET, payload.length);
+        this.buffer.put(slot + DATA_OFFSET, cacheKey);
+        this.buffer.put(slot + DATA_OFFSET + cacheKey.length, payload);
+        // Fails only if another writer has reclaimed the slot from this one in the meantime.
+        LONGS.compareAndSet(this.buffer, slot + SEQUENCE_OFFSET, writing, writing + 1L);
+    }
+
+    private byte[] encrypt(byte[] cacheKey, byte[] plaintext) throws GeneralSecurityException {
+        byte[] iv = new byte[IV_LENGTH];
+        RANDOM.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, this.key, new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(cacheKey);
+        byte[] ciphertext = cipher.doFinal(plaintext);
+        byte[] payload = new byte[IV_LENGTH + ciphertext.length];
+        System.arraycopy(iv, 0, payload, 0, IV_LENGTH);
+        System.arraycopy(ciphertext, 0, payload, IV_LENGTH, ciphertext.length);
+        return payload;
+    }
+
+    private byte[] decrypt(byte[] cacheKey, byte[] payload) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, this.key, new GCMParameterSpec(TAG_BITS, payload, 0, IV_LENGTH));
+        cipher.updateAAD(cacheKey);
+        return cipher.doFinal(payload, IV_LENGTH, payload.length - IV_LENGTH);
+    }
+
+
+    /*
+     * Static methods.
+     */
+
+
+    // FNV-1a, 64-bit.
+    private static long hash(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xffL;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static byte[] encode(SecretBundle secretBundle) throws IOException {
+        if (!(secretBundle.getSecretBundleContent() instanceof Base64SecretBundleContentDetails b64)) {
+            return null;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(baos)) {
+            writeString(out, secretBundle.getSecretId());
+            Long versionNumber = secretBundle.getVersionNumber();
+            out.writeBoolean(versionNumber != null);
+            out.writeLong(versionNumber == null ? 0L : versionNumber);
+            List<SecretBundle.Stages> stages = secretBundle.getStages();
+            out.writeInt(stages == null ? -1 : stages.size());
+            if (stages != null) {
+                for (SecretBundle.Stages stage : stages) {
+                    out.writeUTF(stage.name());
+                }
+            }
+            writeString(out, b64.getContent());
+        }
+        return baos.toByteArray();
+    }
+
+    private static SecretBundle decode(byte[] plaintext) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(plaintext))) {
+            String secretId = readString(in);
+            boolean hasVersionNumber = in.readBoolean();
+            long versionNumber = in.readLong();
+            int stageCount = in.readInt();
+            List<SecretBundle.Stages> stages = null;
+            if (stageCount >= 0) {
+                stages = new ArrayList<>(stageCount);
+                for (int i = 0; i < stageCount; i++) {
+                    stages.add(SecretBundle.Stages.valueOf(in.readUTF()));
+                }
+            }
+            String content = readString(in);
+            return SecretBundle.builder()
+                .secretId(secretId)
+                .versionNumber(hasVersionNumber ? versionNumber : null)
+                .stages(stages)
+                .secretBundleContent(Base64SecretBundleContentDetails.builder().content(content).build())
+                .build();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+}
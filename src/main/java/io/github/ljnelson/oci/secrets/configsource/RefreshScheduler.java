@@ -0,0 +1,345 @@
+/*
+ * Copyright © 2022–2023 Laird Nelson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package io.github.ljnelson.oci.secrets.configsource;
+
+import java.lang.System.Logger;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A low-overhead scheduler of recurring refresh tasks, suitable for refreshing many thousands of secrets from a single
+ * thread.
+ *
+ * <p>Tasks are kept in a <em>hashed timer wheel</em>: a fixed ring of buckets, one of which is examined per {@linkplain
+ * #RefreshScheduler(Duration, int, double, int) tick}.  Scheduling and cancelling a task are constant-time
+ * operations, and there is only ever one timer thread no matter how many tasks are scheduled.  All tasks that fall due
+ * in the same tick are dispatched together as a batch to a bounded pool of worker threads, where they run in
+ * parallel.</p>
+ *
+ * <p>Each task's delay is randomly perturbed by a configurable jitter fraction so that tasks registered at the same
+ * moment, such as all the secrets read at application startup, drift apart rather than firing in lockstep
+ * forever.</p>
+ *
+ * <p>Each task's interval also adapts to its history: a task {@linkplain #schedule(Duration, BooleanSupplier) reports}
+ * whether its run observed a change.  A change halves the task's current interval (to no less than a quarter of its
+ * nominal interval), and a run without one lengthens it by half (to no more than twice its nominal interval).  Secrets
+ * that rotate frequently are therefore checked more often than those that never do.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson/" target="_top">Laird Nelson</a>
+ *
+ * @see #schedule(Duration, BooleanSupplier)
+ */
+public final class RefreshScheduler implements AutoCloseable {
+
+
+    /*
+     * Static fields.
+     */
+
+
+    private static final Logger LOGGER = System.getLogger(RefreshScheduler.class.getName());
+
+
+    /*
+     * Instance fields.
+     */
+
+
+    private final long tickNanos;
+
+    private final List<Handle>[] wheel;
+
+    private final int mask;
+
+    private final double jitter;
+
+    private final Queue<Handle> pending;
+
+    private final ExecutorService workers;
+
+    private final Thread timer;
+
+    private volatile boolean closed;
+
+
+    /*
+     * Constructors.
+     */
+
+
+    /**
+     * Creates a new {@link RefreshScheduler} with a one-second tick, 512 buckets, ten percent jitter, and a worker
+     * count equal to the larger of {@code 4} and the number of available processors.
+     *
+     * @see #RefreshScheduler(Duration, int, double, int)
+     */
+    public RefreshScheduler() {
+        this(Duration.ofSeconds(1L), 512, 0.1, Math.max(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Creates a new {@link RefreshScheduler}.
+     *
+     * @param tick the resolution of this {@link RefreshScheduler}; tasks falling due within the same tick are run in
+     * the same batch; must not be {@code null} and must be positive
+     *
+     * @param buckets the number of buckets in the timer wheel; will be rounded up to a power of two; must be positive
+     *
+     * @param jitter the fraction, between {@code 0.0} and {@code 1.0} inclusive, by which any given delay may be
+     * randomly lengthened or shortened
+     *
+     * @param parallelism the number of worker threads that run due tasks; must be positive
+     *
+     * @exception NullPointerException if {@code tick} is {@code null}
+     *
+     * @exception IllegalArgumentException if any argument is out of range
+     */
+    @SuppressWarnings("unchecked")
+    public RefreshScheduler(Duration tick, int buckets, double jitter, int parallelism) {
+        super();
+        if (tick.isNegative() || tick.isZero()) {
+            throw new IllegalArgumentException("tick: " + tick);
+        } else if (buckets <= 0 || buckets > 1 << 30) {
+            throw new IllegalArgumentException("buckets: " + buckets);
+        } else if (!(jitter >= 0.0 && jitter <= 1.0)) {
+            throw new IllegalArgumentException("jitter: " + jitter);
+        } else if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism: " + parallelism);
+        }
+        this.tickNanos = tick.toNanos();
+        int size = Integer.highestOneBit(buckets);
+        if (size < buckets) {
+            size <<= 1;
+        }
+        this.wheel = (List<Handle>[]) new List<?>[size];
+        for (int i = 0; i < size; i++) {
+            this.wheel[i] = new ArrayList<>();
+        }
+        this.mask = size - 1;
+        this.jitter = jitter;
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.workers = Executors.newFixedThreadPool(parallelism, r -> {
+                Thread t = new Thread(r, "RefreshScheduler worker");
+                t.setDaemon(true);
+                return t;
+            });
+        this.timer = new Thread(this::run, "RefreshScheduler timer");
+        this.timer.setDaemon(true);
+        this.timer.start();
+    }
+
+
+    /*
+     * Instance methods.
+     */
+
+
+    /**
+     * Schedules the supplied {@code task} to run repeatedly, nominally at the supplied {@code interval}, until the
+     * returned {@link Handle} is {@linkplain Handle#cancel() cancelled} or this {@link RefreshScheduler} is {@linkplain
+     * #close() closed}.
+     *
+     * <p>The first run occurs after a jittered {@code interval}.  Each subsequent run is scheduled only once the
+     * previous run has completed, so a given task never runs concurrently with itself.</p>
+     *
+     * <p>The supplied {@code task} must return {@code true} if its run observed a change (such as a new secret
+     * version), and {@code false} otherwise; this informs the adaptive interval described in the {@linkplain
+     * RefreshScheduler class documentation}.  If it throws a {@link RuntimeException}, the exception is logged and
+     * treated as if the task had returned {@code false}.</p>
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * <p>This method is safe for concurrent use by multiple threads.</p>
+     *
+     * @param interval the nominal interval; must not be {@code null} and must be positive
+     *
+     * @param task the task to run; must not be {@code null}
+     *
+     * @return a non-{@code null} {@link Handle} that may be used to cancel further runs
+     *
+     * @exception NullPointerException if either argument is {@code null}
+     *
+     * @exception IllegalArgumentException if {@code interval} is not positive
+     *
+     * @exception IllegalStateException if this {@link RefreshScheduler} has been {@linkplain #close() closed}
+     */
+    public final Handle schedule(Duration interval, BooleanSupplier task) {
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("interval: " + interval);
+        }
+        Handle handle = new Handle(this, interval.toNanos(), Objects.requireNonNull(task, "task"));
+        if (!this.enqueue(handle, handle.nominalNanos)) {
+            throw new IllegalStateException("closed");
+        }
+        return handle;
+    }
+
+    /**
+     * Closes this {@link RefreshScheduler}, cancelling all scheduled tasks and interrupting any that are running.
+     *
+     * <p>This method is idempotent and safe for concurrent use by multiple threads.</p>
+     */
+    @Override // AutoCloseable
+    public final void close() {
+        this.closed = true; // volatile write
+        this.timer.interrupt();
+        this.workers.shutdownNow();
+    }
+
+    private boolean enqueue(Handle handle, long delayNanos) {
+        if (this.closed) { // volatile read
+            return false;
+        }
+        double factor = 1.0 + this.jitter * (2.0 * ThreadLocalRandom.current().nextDouble() - 1.0);
+        handle.deadline = System.nanoTime() + Math.max(this.tickNanos, (long) (delayNanos * factor));
+        return this.pending.add(handle);
+    }
+
+    // Runs only on the timer thread.  The wheel's buckets are confined to it.
+    private void run() {
+        long start = System.nanoTime();
+        long tick = 0L;
+        List<Handle> batch = new ArrayList<>();
+        while (!this.closed) { // volatile read
+            long sleepNanos = start + (tick + 1) * this.tickNanos - System.nanoTime();
+            if (sleepNanos > 0L) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            ++tick;
+            for (Handle handle = this.pending.poll(); handle != null; handle = this.pending.poll()) {
+                if (!handle.cancelled) { // volatile read
+                    long ticks = Math.max(tick, (handle.deadline - start + this.tickNanos - 1) / this.tickNanos);
+                    handle.rounds = (ticks - tick) / this.wheel.length;
+                    this.wheel[(int) (ticks & this.mask)].add(handle);
+                }
+            }
+            Iterator<Handle> i = this.wheel[(int) (tick & this.mask)].iterator();
+            while (i.hasNext()) {
+                Handle handle = i.next();
+                if (handle.cancelled) { // volatile read
+                    i.remove();
+                } else if (handle.rounds <= 0L) {
+                    i.remove();
+                    batch.add(handle);
+                } else {
+                    --handle.rounds;
+                }
+            }
+            for (Handle handle : batch) {
+                try {
+                    this.workers.execute(handle::runOnce);
+                } catch (RejectedExecutionException rejectedExecutionException) {
+                    // We are closing.
+                    break;
+                }
+            }
+            batch.clear();
+        }
+    }
+
+
+    /*
+     * Inner and nested classes.
+     */
+
+
+    /**
+     * A handle to a task {@linkplain RefreshScheduler#schedule(Duration, BooleanSupplier) scheduled} with a {@link
+     * RefreshScheduler}.
+     *
+     * @author <a href="https://about.me/lairdnelson/" target="_top">Laird Nelson</a>
+     *
+     * @see #cancel()
+     */
+    public static final class Handle {
+
+        private final RefreshScheduler scheduler;
+
+        private final long nominalNanos;
+
+        private final BooleanSupplier task;
+
+        private volatile boolean cancelled;
+
+        // Confined to whichever single thread currently owns this Handle: the scheduling thread, then the timer
+        // thread, then a worker thread.  Handoffs are through concurrent queues, which publish these safely.
+
+        private long currentNanos;
+
+        private long deadline;
+
+        private long rounds;
+
+        private Handle(RefreshScheduler scheduler, long nominalNanos, BooleanSupplier task) {
+            super();
+            this.scheduler = scheduler;
+            this.nominalNanos = nominalNanos;
+            this.currentNanos = nominalNanos;
+            this.task = task;
+        }
+
+        /**
+         * Cancels all future runs of the associated task.
+         *
+         * <p>A run that is already underway is not interrupted.</p>
+         *
+         * <p>This method is idempotent and safe for concurrent use by multiple threads.</p>
+         */
+        public final void cancel() {
+            this.cancelled = true; // volatile write
+        }
+
+        final boolean cancelled() {
+            return this.cancelled; // volatile read
+        }
+
+        private void runOnce() {
+            if (this.cancelled) { // volatile read
+                return;
+            }
+            boolean changed;
+            try {
+                changed = this.task.getAsBoolean();
+            } catch (RuntimeException runtimeException) {
+                LOGGER.log(Logger.Level.WARNING, runtimeException.getMessage(), runtimeException);
+                changed = false;
+            }
+            if (changed) {
+                this.currentNanos = Math.max(this.nominalNanos / 4L, this.currentNanos / 2L);
+            } else {
+                this.currentNanos = Math.min(this.nominalNanos * 2L, this.currentNanos + this.currentNanos / 2L);
+            }
+            if (!this.cancelled) { // volatile read
+                this.scheduler.enqueue(this, this.currentNanos);
+            }
+        }
+
+    }
+
+}
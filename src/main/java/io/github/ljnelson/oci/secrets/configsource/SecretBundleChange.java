@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2022–2023 Laird Nelson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package io.github.ljnelson.oci.secrets.configsource;
+
+import java.util.Objects;
+
+import com.oracle.bmc.secrets.model.SecretBundle;
+
+/**
+ * A notification that the secret backing a MicroProfile Config property has a new {@linkplain
+ * SecretBundle#getVersionNumber() version}.
+ *
+ * <p>The {@link #toString()} method of this record deliberately omits the {@linkplain #value() value} so that
+ * instances may be logged safely.</p>
+ *
+ * @param propertyName the name of the affected property; must not be {@code null}
+ *
+ * @param previousVersionNumber the version number of the secret that was previously in effect; may be {@code null}
+ *
+ * @param versionNumber the version number of the secret that is now in effect; may be {@code null}
+ *
+ * @param value the new value of the property; may be {@code null} if the new secret version's content is not
+ * representable as a {@link String}
+ *
+ * @author <a href="https://about.me/lairdnelson/" target="_top">Laird Nelson</a>
+ *
+ * @see SecretBundleConfigSource#changes()
+ */
+public record SecretBundleChange(String propertyName, Long previousVersionNumber, Long versionNumber, String value) {
+
+    /**
+     * Creates a new {@link SecretBundleChange}.
+     *
+     * @param propertyName the name of the affected property; must not be {@code null}
+     *
+     * @param previousVersionNumber the version number of the secret that was previously in effect; may be {@code
+     * null}
+     *
+     * @param versionNumber the version number of the secret that is now in effect; may be {@code null}
+     *
+     * @param value the new value of the property; may be {@code null}
+     *
+     * @exception NullPointerException if {@code propertyName} is {@code null}
+     */
+    public SecretBundleChange {
+        Objects.requireNonNull(propertyName, "propertyName");
+    }
+
+    /**
+     * Returns a {@link String} representation of this {@link SecretBundleChange} that does not include its {@linkplain
+     * #value() value}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link String}
+     */
+    @Override // Record
+    public String toString() {
+        return "SecretBundleChange[propertyName=" + this.propertyName()
+            + ", previousVersionNumber=" + this.previousVersionNumber()
+            + ", versionNumber=" + this.versionNumber() + "]";
+    }
+
+}
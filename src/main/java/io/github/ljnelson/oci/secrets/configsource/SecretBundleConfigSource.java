@@ -12,18 +12,50 @@
  */
 package io.github.ljnelson.oci.secrets.configsource;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.System.Logger;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.VarHandle;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
 
+import com.oracle.bmc.model.BmcException;
 import com.oracle.bmc.secrets.Secrets;
 import com.oracle.bmc.secrets.model.Base64SecretBundleContentDetails;
+import com.oracle.bmc.secrets.model.SecretBundle;
+import com.oracle.bmc.secrets.requests.GetSecretBundleByNameRequest;
 import com.oracle.bmc.secrets.requests.GetSecretBundleRequest;
 import org.eclipse.microprofile.config.spi.ConfigSource;
 
@@ -36,6 +68,10 @@ import org.eclipse.microprofile.config.spi.ConfigSource;
  * @author <a href="https://about.me/lairdnelson/" target="_top">Laird Nelson</a>
  *
  * @see #getValue(String)
+ *
+ * @see #changes()
+ *
+ * @see #group(Collection)
  */
 public class SecretBundleConfigSource implements AutoCloseable, ConfigSource {
 
@@ -45,11 +81,30 @@ public class SecretBundleConfigSource implements AutoCloseable, ConfigSource {
      */
 
 
+    private static final Logger LOGGER = System.getLogger(SecretBundleConfigSource.class.getName());
+
+    // The Base64 encoding of the gzip magic number (0x1f 0x8b) followed by the deflate method (0x08).  No UTF-8 text
+    // can begin with these bytes, so secret content that does is taken to be compressed.
+    private static final String GZIP_BASE64_PREFIX = "H4sI";
+
+    // The most bytes that compressed secret content may inflate to; anything larger is refused rather than buffered.
+    private static final int MAX_INFLATED_LENGTH = 1024 * 1024;
+
     private static final VarHandle SECRETS;
 
+    private static final VarHandle REFRESHER;
+
+    private static final VarHandle CALLER;
+
+    private static final VarHandle PREFETCHER;
+
     static {
         try {
-            SECRETS = MethodHandles.lookup().findVarHandle(SecretBundleConfigSource.class, "secrets", Secrets.class);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            SECRETS = lookup.findVarHandle(SecretBundleConfigSource.class, "secrets", Secrets.class);
+            REFRESHER = lookup.findVarHandle(SecretBundleConfigSource.class, "refresher", RefreshScheduler.class);
+            CALLER = lookup.findVarHandle(SecretBundleConfigSource.class, "caller", ExecutorService.class);
+            PREFETCHER = lookup.findVarHandle(SecretBundleConfigSource.class, "prefetcher", StartupPrefetcher.class);
         } catch (final NoSuchFieldException | IllegalAccessException reflectiveOperationException) {
             throw new ExceptionInInitializerError(reflectiveOperationException);
         }
@@ -63,10 +118,28 @@ public class SecretBundleConfigSource implements AutoCloseable, ConfigSource {
 
     private volatile Secrets secrets;
 
+    private volatile RefreshScheduler refresher;
+
+    private volatile boolean ownsRefresher;
+
+    private volatile ExecutorService caller;
+
+    private volatile StartupPrefetcher<Loaded> prefetcher;
+
     private final Supplier<? extends Secrets> secretsSupplier;
 
     private final Function<? super String, ? extends GetSecretBundleRequest.Builder> builderFunction;
 
+    private final ConcurrentMap<String, Entry> entries;
+
+    private final ConcurrentMap<String, Composite> composites;
+
+    private final Set<RefreshScheduler.Handle> handles;
+
+    private final ThreadLocal<Boolean> resolving;
+
+    private final SubmissionPublisher<SecretBundleChange> publisher;
+
 
     /*
      * Constructors.
@@ -106,6 +179,11 @@ public class SecretBundleConfigSource implements AutoCloseable, ConfigSource {
         super();
         this.secretsSupplier = Objects.requireNonNull(secretsSupplier, "secretsSupplier");
         this.builderFunction = Objects.requireNonNull(builderFunction, "builderFunction");
+        this.entries = new ConcurrentHashMap<>();
+        this.composites = new ConcurrentHashMap<>();
+        this.handles = ConcurrentHashMap.newKeySet();
+        this.resolving = new ThreadLocal<>();
+        this.publisher = new SubmissionPublisher<>();
     }
 
 
@@ -114,11 +192,114 @@ public class SecretBundleConfigSource implements AutoCloseable, ConfigSource {
      */
 
 
+    /**
+     * Returns a {@link Flow.Publisher} that publishes a {@link SecretBundleChange} whenever a background refresh of a
+     * property {@linkplain #refreshInterval(String) for which refreshing is enabled} discovers a new secret version.
+     *
+     * <p>Only properties whose values have been successfully {@linkplain #getValue(String) retrieved} at least once are
+     * refreshed, and therefore only they are eligible for change notification.</p>
+     *
+     * <p>Subscribers are notified asynchronously.  Publishing never waits for a subscriber: if a subscriber falls so far
+     * behind that its buffer is full, further changes are dropped for that subscriber (and logged) rather than stalling
+     * the refreshes of other secrets.  When this {@link SecretBundleConfigSource} is {@linkplain #close() closed}, all
+     * subscribers are completed.</p>
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * <p>This method is safe for concurrent use by multiple threads.</p>
+     *
+     * @return a non-{@code null} {@link Flow.Publisher}
+     *
+     * @see #refreshInterval(String)
+     *
+     * @see SecretBundleChange
+     */
+    public final Flow.Publisher<SecretBundleChange> changes() {
+        return this.publisher::subscribe;
+    }
+
+    /**
+     * Fetches the secrets backing the supplied property names concurrently and returns a {@link SecretGroup} through
+     * which their values may be read together as one consistent {@linkplain SecretGroup#snapshot() snapshot}.
+     *
+     * <p>Use a group for properties that must agree with one another, such as a user name and password pair or a
+     * private key and its certificate.  Properties looked up individually with {@link #getValue(String)} are each
+     * fetched at a different moment, so a rotation in between can pair an old value with a new one.</p>
+     *
+     * <p>If any of the supplied property names has a {@linkplain #refreshInterval(String) refresh interval}, the whole
+     * group is re-fetched concurrently at the shortest such interval.  If any member's version number has changed,
+     * every member's value is replaced at once, and a {@link SecretBundleChange} is {@linkplain #changes() published}
+     * for each changed member.  Groups are independent of the values cached on behalf of {@link
+     * #getValue(String)}.  Background refreshes of the group stop when it is {@linkplain SecretGroup#close() closed}, or
+     * when this {@link SecretBundleConfigSource} is.</p>
+     *
+     * <p>A group reflects the secrets as they were when last fetched together.  If related secrets are themselves
+     * rotated one at a time, a refresh that falls between those rotations will still observe a mismatched pair, and
+     * the next refresh will correct it.</p>
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * <p>This method is safe for concurrent use by multiple threads.</p>
+     *
+     * @param propertyNames the names of the properties in the group; must not be {@code null} or contain {@code null}
+     * elements
+     *
+     * @return a new, non-{@code null} {@link SecretGroup}
+     *
+     * @exception NullPointerException if {@code propertyNames} is or contains {@code null}
+     *
+     * @exception IllegalArgumentException if the {@code builderFunction} {@linkplain
+     * #SecretBundleConfigSource(Supplier, Function) supplied at construction time} does not handle one of the supplied
+     * property names
+     *
+     * @exception IllegalStateException if a remote call exceeded its timeout or the calling thread was interrupted
+     *
+     * @see SecretGroup#snapshot()
+     */
+    public final SecretGroup group(Collection<? extends String> propertyNames) {
+        Map<String, GetSecretBundleRequest> requests = new LinkedHashMap<>();
+        Duration refreshInterval = null;
+        for (String propertyName : propertyNames) {
+            Objects.requireNonNull(propertyName, "propertyName");
+            GetSecretBundleRequest.Builder builder =
+                this.builder(propertyName, this.guarded(() -> this.timeout(propertyName)), (secretId, secretBundle) -> {});
+            if (builder == null) {
+                throw new IllegalArgumentException("Not a secret-backed property: " + propertyName);
+            }
+            requests.put(propertyName, builder.build());
+            Duration d = this.guarded(() -> this.refreshInterval(propertyName));
+            if (d != null && !d.isNegative() && !d.isZero() && (refreshInterval == null || d.compareTo(refreshInterval) < 0)) {
+                refreshInterval = d;
+            }
+        }
+        SecretGroup group = new SecretGroup(requests, this.snapshot(requests));
+        if (refreshInterval != null) {
+            group.handle(this.schedule(refreshInterval, () -> this.refresh(group)));
+        }
+        return group;
+    }
+
     /**
      * Closes this {@link SecretBundleConfigSource}.
      */
     @Override // AutoCloseable
     public final void close() {
+        StartupPrefetcher<Loaded> prefetcher = this.prefetcher; // volatile read
+        if (prefetcher != null) {
+            prefetcher.write();
+        }
+        for (RefreshScheduler.Handle handle : this.handles) {
+            handle.cancel();
+        }
+        RefreshScheduler refresher = this.refresher; // volatile read
+        if (refresher != null && this.ownsRefresher) { // volatile read
+            refresher.close();
+        }
+        ExecutorService caller = this.caller; // volatile read
+        if (caller != null) {
+            caller.shutdownNow();
+        }
+        this.publisher.close();
         Secrets secrets = this.secrets; // volatile read
         if (secrets != null) {
             try {
@@ -199,6 +380,32 @@ public class SecretBundleConfigSource implements AutoCloseable, ConfigSource {
      * Returns a value for the supplied {@code propertyName}, or {@code null} if there is no such value at the moment of
      * invocation.
      *
+     * <p>If the supplied {@code propertyName} has a non-{@code null} {@linkplain #refreshInterval(String) refresh
+     * interval}, then once its value has been retrieved it is cached and kept current in the background, and
+     * subsequent invocations of this method with the same {@code propertyName} return the cached value without a
+     * remote call.</p>
+     *
+     * <p>The {@code builderFunction} {@linkplain #SecretBundleConfigSource(Supplier, Function) supplied at construction
+     * time} may itself consult a MicroProfile Config {@link org.eclipse.microprofile.config.Config} that includes this
+     * {@link SecretBundleConfigSource}, as {@link ConfigurationBackedBuilderFunction} does by default.  To keep one
+     * lookup from fanning out into further builder evaluations and remote calls, any invocation of this method made on
+     * a thread that is already executing the {@code builderFunction} on behalf of this {@link SecretBundleConfigSource}
+     * returns {@code null} immediately.  The values of properties that describe secrets therefore cannot themselves be
+     * stored in secrets served by the same {@link SecretBundleConfigSource}.</p>
+     *
+     * <p>Any remote call is bounded by the {@linkplain #timeout(String) timeout} for the supplied {@code
+     * propertyName}, if there is one.</p>
+     *
+     * <p>If a {@linkplain #prefetchManifest() prefetch manifest} is in use and the supplied {@code propertyName} was
+     * prefetched, the prefetched value is returned (waiting for the prefetch to complete if necessary).</p>
+     *
+     * <p>Secret content that is gzip-compressed, as recognized by its leading magic number, is inflated transparently
+     * as it is decoded, and only the inflated value is cached.  Large values such as certificate bundles may therefore
+     * be stored compressed to stay within secret size limits and to reduce the size of every fetch.</p>
+     *
+     * <p>If the supplied {@code propertyName} has a {@linkplain #template(String) template}, the properties it
+     * references are retrieved concurrently and the assembled result is returned.</p>
+     *
      * <p>This method is safe for concurrent use by multiple threads.</p>
      *
      * @param propertyName the name of the property; may be {@code null}
@@ -207,20 +414,782 @@ public class SecretBundleConfigSource implements AutoCloseable, ConfigSource {
      * this implies that no property name may have a suitable value of {@code null} which is but one of several
      * deficiencies of the MicroProfile Config specification
      *
-     * @see #SecretBundleConfigSource(Supplier. Function)
+     * @exception IllegalStateException if a remote call exceeded its timeout or the calling thread was interrupted
+     *
+     * @see #getValue(String, Duration)
+     *
+     * @see #SecretBundleConfigSource(Supplier, Function)
      */
     @Override // ConfigSource
     public final String getValue(String propertyName) {
-        GetSecretBundleRequest.Builder builder = this.builderFunction.apply(propertyName);
-        if (builder != null
-            && this.secrets().getSecretBundle(builder.build())
-                   .getSecretBundle()
-                   .getSecretBundleContent() instanceof Base64SecretBundleContentDetails b64) {
-            return new String(Base64.getDecoder().decode(b64.getContent()), StandardCharsets.UTF_8);
+        return this.getValue(propertyName, null);
+    }
+
+    /**
+     * Returns a value for the supplied {@code propertyName}, or {@code null} if there is no such value at the moment of
+     * invocation, bounding any remote call by the supplied {@code timeout}.
+     *
+     * <p>This method behaves exactly like {@link #getValue(String)}, except that if the supplied {@code timeout} is
+     * non-{@code null} it is used instead of the {@linkplain #timeout(String) per-property timeout}.</p>
+     *
+     * <p>This method is safe for concurrent use by multiple threads.</p>
+     *
+     * @param propertyName the name of the property; may be {@code null}
+     *
+     * @param timeout the maximum length of time to wait for a remote call to complete; may be {@code null} in which
+     * case the return value of an invocation of {@link #timeout(String)} will be used instead
+     *
+     * @return a suitable value, or {@code null} if there is no value suitable for the supplied {@code propertyName}
+     *
+     * @exception IllegalStateException if a remote call exceeded its timeout or the calling thread was interrupted
+     *
+     * @see #getValue(String)
+     *
+     * @see #timeout(String)
+     */
+    public final String getValue(String propertyName, Duration timeout) {
+        if (propertyName == null || this.resolving.get() != null) {
+            // Reentrant call from this.builderFunction.
+            return null;
+        }
+        Entry entry = this.entries.get(propertyName);
+        if (entry != null) {
+            this.prefetcher().record(propertyName);
+            return entry.value();
+        }
+        Composite composite = this.composites.get(propertyName);
+        if (composite != null) {
+            return composite.value();
         }
+        String template = this.guarded(() -> this.template(propertyName));
+        return template == null ? this.resolve(propertyName, timeout) : this.assemble(propertyName, template, timeout);
+    }
+
+    /**
+     * Returns a template from which the value of the supplied {@code propertyName} is to be assembled, or {@code null}
+     * if the supplied {@code propertyName} is not a template property.
+     *
+     * <p>A template is a {@link String} in which every occurrence of <code>${</code><em>name</em><code>}</code> is
+     * replaced with the value of the property named <em>name</em>, as retrieved from this {@link
+     * SecretBundleConfigSource}.  For example, a template of {@code jdbc:oracle:thin:${db.user}/${db.password}@prod}
+     * yields a JDBC URL that embeds two separately stored secrets.  A <code>${</code> with no matching <code>}</code>
+     * is copied as is.  Referenced properties are not themselves expanded as templates.</p>
+     *
+     * <p>All distinct referenced properties are retrieved concurrently, so a template costs one parallel round trip
+     * rather than one round trip per reference.  If any referenced property has no value, the template property has no
+     * value either.  If every referenced property is {@linkplain #refreshInterval(String) cached}, the assembled value
+     * is cached too, and is discarded and reassembled on demand whenever a refresh changes one of its
+     * references.</p>
+     *
+     * <p>The default implementation of this method returns {@code null}.</p>
+     *
+     * <p>This method is, and overrides of this method must be, safe for concurrent use by multiple threads.</p>
+     *
+     * @param propertyName the name of a property; never {@code null}
+     *
+     * @return a template, or {@code null}
+     *
+     * @see #getValue(String)
+     */
+    protected String template(String propertyName) {
+        return null;
+    }
+
+    private String resolve(String propertyName, Duration timeout) {
+        StartupPrefetcher<Loaded> prefetcher = this.prefetcher();
+        Entry entry = this.entries.get(propertyName);
+        if (entry != null) {
+            prefetcher.record(propertyName);
+            return entry.value();
+        }
+        CompletableFuture<Loaded> prefetch = prefetcher.take(propertyName);
+        String value = prefetch == null ?
+            this.load(propertyName, timeout) :
+            this.claim(propertyName, this.await(prefetch, propertyName, timeout));
+        if (value != null) {
+            prefetcher.record(propertyName);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the {@link Path} of a manifest file used to speed up application startup, or {@code null} if no such
+     * file should be used.
+     *
+     * <p>When this method returns a non-{@code null} {@link Path}, the names of all properties that are successfully
+     * {@linkplain #getValue(String) resolved} within the {@linkplain #prefetchWindow() prefetch window} are written to
+     * it, one per line, when that window closes or when this {@link SecretBundleConfigSource} is {@linkplain #close()
+     * closed}, whichever comes first.  On a subsequent startup, the first invocation of {@link #getValue(String)}
+     * causes every property named in the manifest to be fetched in parallel in the background, so that later requests
+     * for them within the prefetch window are satisfied without waiting for a remote call.  Prefetched values that are
+     * not requested before the window closes are discarded, so a property first requested after startup is always
+     * fetched afresh.  A prefetched value is {@linkplain #refreshInterval(String) cached and refreshed} only once it is
+     * requested, so properties that are named in the manifest but no longer used cost nothing after startup.  This is
+     * useful when property names cannot be listed up front, such as when they are matched by a {@link
+     * SelectiveBuilderFunction} with a {@link java.util.regex.Pattern}.</p>
+     *
+     * <p>The manifest contains property names only, never secret values.</p>
+     *
+     * <p>The default implementation of this method returns {@code null}.</p>
+     *
+     * <p>This method is invoked at most once per {@link SecretBundleConfigSource}, the first time a value is
+     * requested, even if several threads request values at once.</p>
+     *
+     * @return a {@link Path}, or {@code null}
+     *
+     * @see #prefetchWindow()
+     */
+    protected Path prefetchManifest() {
         return null;
     }
 
+    /**
+     * Returns the length of the window, starting with the first {@linkplain #getValue(String) request for a value},
+     * during which resolved property names are recorded in the {@linkplain #prefetchManifest() prefetch manifest}.
+     *
+     * <p>The default implementation of this method returns a {@link Duration} of one minute.</p>
+     *
+     * <p>This method does not, and overrides of this method must not, return {@code null}.</p>
+     *
+     * <p>This method is invoked at most once per {@link SecretBundleConfigSource}, and only if {@link
+     * #prefetchManifest()} returns a non-{@code null} value.</p>
+     *
+     * @return a non-{@code null} {@link Duration}
+     *
+     * @see #prefetchManifest()
+     */
+    protected Duration prefetchWindow() {
+        return Duration.ofMinutes(1L);
+    }
+
+    /**
+     * Returns an identifier for the authentication principal on whose behalf this {@link SecretBundleConfigSource}
+     * fetches secrets, or {@code null} if fetched secrets should not be shared with other {@link
+     * SecretBundleConfigSource} instances.
+     *
+     * <p>When this method returns a non-{@code null} value, every fetch of a secret first consults a cache shared by
+     * all {@link SecretBundleConfigSource} instances whose class was loaded by the same class loader as this class.
+     * When this library is loaded once for an entire application server, such as from a server-wide library
+     * directory, rather than once per deployment, each secret is then fetched at most once per {@linkplain
+     * #sharedCacheTimeToLive() time-to-live} per JVM, no matter how many deployments' {@link SecretBundleConfigSource}
+     * instances ask for it.  Concurrent fetches of the same secret are coalesced into one.</p>
+     *
+     * <p>Cache entries are keyed by the returned identifier together with the secret ID, version number, version name
+     * and stage of the request.  <strong>The returned identifier is the only thing that keeps one principal's cached
+     * secrets from another's, and it is not verified.</strong>  A secret served from the cache is not authorized by
+     * the vault again, so any two instances that return the same identifier read each other's secrets, whatever
+     * credentials their {@link Secrets} clients actually use.  An override must therefore return a value derived
+     * from those credentials, such as the tenancy OCID, user OCID and key fingerprint of an API signing key, or the
+     * OCID of an instance or resource principal, and never a constant, an application name or any other value that
+     * two differently authorized deployments might share.  If no such value is at hand, do not override this
+     * method.</p>
+     *
+     * <p>The default implementation of this method returns {@code null}, so by default nothing is shared.</p>
+     *
+     * <p>This method is, and overrides of this method must be, safe for concurrent use by multiple threads.</p>
+     *
+     * @return an identifier for the authentication principal, or {@code null}
+     *
+     * @see #sharedCacheTimeToLive()
+     */
+    protected String sharedCachePrincipal() {
+        return null;
+    }
+
+    /**
+     * Returns the length of time a secret fetched through the cache described in the documentation of the {@link
+     * #sharedCachePrincipal()} method may be reused.
+     *
+     * <p>The default implementation of this method returns a {@link Duration} of thirty seconds.</p>
+     *
+     * <p>This method does not, and overrides of this method must not, return {@code null}.</p>
+     *
+     * <p>This method is, and overrides of this method must be, safe for concurrent use by multiple threads.</p>
+     *
+     * @return a non-{@code null} {@link Duration}
+     *
+     * @see #sharedCachePrincipal()
+     */
+    protected Duration sharedCacheTimeToLive() {
+        return Duration.ofSeconds(30L);
+    }
+
+    /**
+     * Returns a {@link NodeSecretBundleCache} through which secrets fetched by this {@link SecretBundleConfigSource}
+     * are shared with other processes on the same node, or {@code null} if they should not be.
+     *
+     * <p>When this method returns a non-{@code null} value, and the {@link #sharedCachePrincipal()} method does too,
+     * every fetch that is not satisfied by the cache described in the documentation of the {@link
+     * #sharedCachePrincipal()} method consults the returned {@link NodeSecretBundleCache} next, and only then, if
+     * necessary, the vault.  Its entries are additionally keyed by the return value of the {@link
+     * #sharedCachePrincipal()} method, which must identify this {@link SecretBundleConfigSource}'s credentials as
+     * described in its documentation: every process that maps the same file and returns the same identifier reads the
+     * others' secrets.  When the {@link #sharedCachePrincipal()} method returns {@code null}, the returned {@link
+     * NodeSecretBundleCache} is not used at all.</p>
+     *
+     * <p>Overrides should return the same long-lived instance on every invocation, as each {@link
+     * NodeSecretBundleCache} maps its file when it is constructed.</p>
+     *
+     * <p>The default implementation of this method returns {@code null}.</p>
+     *
+     * <p>This method is, and overrides of this method must be, safe for concurrent use by multiple threads.</p>
+     *
+     * @return a {@link NodeSecretBundleCache}, or {@code null}
+     *
+     * @see NodeSecretBundleCache
+     */
+    protected NodeSecretBundleCache nodeSecretBundleCache() {
+        return null;
+    }
+
+    private String assemble(String propertyName, String template, Duration timeout) {
+        Map<String, String> values = this.all(references(template), reference -> this.resolve(reference, timeout));
+        if (values.containsValue(null)) {
+            return null;
+        }
+        String value = expand(template, values);
+        for (Map.Entry<String, String> e : values.entrySet()) {
+            Entry entry = this.entries.get(e.getKey());
+            if (entry == null || !Objects.equals(entry.value(), e.getValue())) {
+                // Not every reference is cached (or one just changed), so neither is the result.
+                return value;
+            }
+        }
+        Composite composite = new Composite(Map.copyOf(values), value);
+        this.composites.putIfAbsent(propertyName, composite);
+        // A refresh may have replaced a reference after the check above but before its invalidation could see the
+        // composite; check again now that the composite is visible.
+        for (Map.Entry<String, String> e : values.entrySet()) {
+            Entry entry = this.entries.get(e.getKey());
+            if (entry == null || !Objects.equals(entry.value(), e.getValue())) {
+                this.composites.remove(propertyName, composite);
+                break;
+            }
+        }
+        return value;
+    }
+
+    // Applies the supplied function to each of the supplied distinct names concurrently on the caller pool, and returns
+    // the results, which may include nulls, indexed by name in the order of the supplied names.  Results are gathered
+    // as they complete, so the first failure, whichever name it belongs to, cancels the rest at once, interrupting any
+    // remote calls they are making.
+    private <R> Map<String, R> all(Collection<? extends String> names, Function<? super String, ? extends R> f) {
+        CompletionService<R> completions = new ExecutorCompletionService<>(this.caller());
+        Map<Future<R>, String> futures = new HashMap<>();
+        for (String name : names) {
+            // Unlike CompletableFuture's, these Futures interrupt their threads when cancelled.
+            futures.put(completions.submit(() -> f.apply(name)), name);
+        }
+        Map<String, R> completed = new HashMap<>();
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                Future<R> future = completions.take();
+                completed.put(futures.get(future), future.get());
+            }
+        } catch (ExecutionException executionException) {
+            futures.keySet().forEach(future -> future.cancel(true));
+            Throwable cause = executionException.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            } else if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(cause.getMessage(), cause);
+        } catch (InterruptedException interruptedException) {
+            futures.keySet().forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(interruptedException.getMessage(), interruptedException);
+        }
+        Map<String, R> results = new LinkedHashMap<>();
+        for (String name : names) {
+            results.put(name, completed.get(name));
+        }
+        return results;
+    }
+
+    private SecretGroup.Snapshot snapshot(Map<String, GetSecretBundleRequest> requests) {
+        Map<String, SecretBundle> secretBundles =
+            this.all(requests.keySet(), pn -> this.fetch(requests.get(pn), this.guarded(() -> this.timeout(pn))));
+        Map<String, String> values = new LinkedHashMap<>();
+        Map<String, Long> versionNumbers = new LinkedHashMap<>();
+        for (Map.Entry<String, SecretBundle> e : secretBundles.entrySet()) {
+            String value = value(e.getValue());
+            if (value != null) {
+                values.put(e.getKey(), value);
+            }
+            versionNumbers.put(e.getKey(), e.getValue().getVersionNumber());
+        }
+        return new SecretGroup.Snapshot(Collections.unmodifiableMap(values), Collections.unmodifiableMap(versionNumbers));
+    }
+
+    private String load(String propertyName, Duration timeout) {
+        return this.claim(propertyName, this.fetchValue(propertyName, timeout));
+    }
+
+    // Fetches the value of the supplied property without caching it or scheduling its refresh, so that a prefetched
+    // value the application never asks for costs nothing after startup.  Returns null if the property is not handled.
+    private Loaded fetchValue(String propertyName, Duration timeout) {
+        Duration t = timeout == null ? this.guarded(() -> this.timeout(propertyName)) : timeout;
+        Map<String, SecretBundle> resolved = new HashMap<>();
+        GetSecretBundleRequest.Builder builder = this.builder(propertyName, t, resolved::put);
+        if (builder == null) {
+            return null;
+        }
+        GetSecretBundleRequest request = builder.build();
+        Duration refreshInterval = this.guarded(() -> this.refreshInterval(propertyName));
+        boolean refreshed = refreshInterval != null && !refreshInterval.isNegative() && !refreshInterval.isZero();
+        if (refreshed
+            && request.getStage() == GetSecretBundleRequest.Stage.Latest
+            && request.getVersionNumber() == null
+            && request.getSecretVersionName() == null
+            && this.guarded(() -> this.prestage(propertyName))) {
+            // A pending version is also the latest one, so staging it means serving the current one in the meantime.
+            request = GetSecretBundleRequest.builder().copy(request).stage(GetSecretBundleRequest.Stage.Current).build();
+        }
+        // A SecretNameResolver may have just fetched the very bundle the request asks for while resolving its name.
+        SecretBundle secretBundle = resolved.get(request.getSecretId());
+        if (secretBundle == null || !answers(secretBundle, request)) {
+            secretBundle = this.fetch(request, t);
+        }
+        return new Loaded(new Entry(request, secretBundle.getVersionNumber(), value(secretBundle)),
+                          refreshed ? refreshInterval : null);
+    }
+
+    // Caches the supplied loaded value and schedules its refresh, if its property is refreshed, now that the
+    // application has asked for it, and returns the value.
+    private String claim(String propertyName, Loaded loaded) {
+        if (loaded == null) {
+            return null;
+        }
+        Entry entry = loaded.entry();
+        if (entry.value() != null
+            && loaded.refreshInterval() != null
+            && this.entries.putIfAbsent(propertyName, entry) == null) {
+            this.schedule(loaded.refreshInterval(), () -> this.refresh(propertyName));
+        }
+        return entry.value();
+    }
+
+    // Invokes the builder function such that any default SecretNameResolver it uses fetches by name through this
+    // ConfigSource, with the supplied timeout, and reports the secret bundles it fetches to the supplied BiConsumer.
+    private GetSecretBundleRequest.Builder builder(String propertyName,
+                                                   Duration timeout,
+                                                   BiConsumer<? super String, ? super SecretBundle> resolved) {
+        return this.guarded(() -> SecretNameResolver.within(request -> this.fetch(request, timeout),
+                                                            resolved,
+                                                            () -> this.builderFunction.apply(propertyName)));
+    }
+
+    /**
+     * Returns the nominal interval at which the secret backing the supplied {@code propertyName} should be re-fetched
+     * in the background, or {@code null} if it should not be cached and refreshed at all.
+     *
+     * <p>When this method returns a positive {@link Duration} for a given {@code propertyName}, the first successfully
+     * {@linkplain #getValue(String) retrieved} value for that property is cached, and the secret is re-fetched at
+     * approximately the returned interval thereafter.  All such re-fetches are driven by the {@link RefreshScheduler}
+     * described in the documentation of the {@link #refreshScheduler()} method, which jitters, batches and adapts them
+     * as described in its own documentation.  Whenever a re-fetch yields a new {@linkplain
+     * SecretBundle#getVersionNumber() version number}, the cached value is replaced and a {@link SecretBundleChange}
+     * is {@linkplain #changes() published}.</p>
+     *
+     * <p>The default implementation of this method returns {@code null}, so by default no value is cached and every
+     * invocation of {@link #getValue(String)} results in a remote call.</p>
+     *
+     * <p>This method is, and overrides of this method must be, safe for concurrent use by multiple threads.</p>
+     *
+     * @param propertyName the name of a property whose value is being retrieved; never {@code null}
+     *
+     * @return the refresh interval for the supplied {@code propertyName}, or {@code null}; a zero or negative {@link
+     * Duration} is treated as if it were {@code null}
+     *
+     * @see #changes()
+     */
+    protected Duration refreshInterval(String propertyName) {
+        return null;
+    }
+
+    /**
+     * Returns the {@link RefreshScheduler} that should drive the background re-fetches described in the documentation
+     * of the {@link #refreshInterval(String)} method, or {@code null} if this {@link SecretBundleConfigSource} should
+     * create and use one of its own.
+     *
+     * <p>This method is invoked at most once, and only when the first re-fetch is scheduled.  Overrides may return a
+     * {@link RefreshScheduler} with a different tick, jitter or parallelism, or one shared by several {@link
+     * SecretBundleConfigSource}s, which then share its single timer thread and worker pool.  A {@link
+     * RefreshScheduler} returned by this method is not {@linkplain RefreshScheduler#close() closed} when this {@link
+     * SecretBundleConfigSource} is {@linkplain #close() closed}; only the tasks this {@link SecretBundleConfigSource}
+     * scheduled with it are cancelled.  Closing it remains the responsibility of its creator.</p>
+     *
+     * <p>The default implementation of this method returns {@code null}, in which case a {@link RefreshScheduler}
+     * created with its {@linkplain RefreshScheduler#RefreshScheduler() zero-argument constructor} is used and is closed
+     * along with this {@link SecretBundleConfigSource}.</p>
+     *
+     * <p>This method is, and overrides of this method must be, safe for concurrent use by multiple threads, and
+     * overrides must return the same value on every invocation.</p>
+     *
+     * @return a {@link RefreshScheduler}, or {@code null}
+     *
+     * @see #refreshInterval(String)
+     *
+     * @see RefreshScheduler
+     */
+    protected RefreshScheduler refreshScheduler() {
+        return null;
+    }
+
+    /**
+     * Returns the maximum length of time that a remote call made to retrieve a value for the supplied {@code
+     * propertyName} may take, or {@code null} if remote calls for it are unbounded.
+     *
+     * <p>When this method returns a positive {@link Duration}, the remote call is made on a separate thread and the
+     * calling thread waits at most that long for it.  If the deadline passes, or if the calling thread is interrupted
+     * while it waits, the thread making the remote call is interrupted, which abandons any pending SDK retries and
+     * interrupts the HTTP exchange to the extent that the underlying HTTP client permits, and an {@link
+     * IllegalStateException} is thrown.  The same deadline applies to each background {@linkplain
+     * #refreshInterval(String) refresh} of the property.</p>
+     *
+     * <p>The default implementation of this method returns {@code null}.</p>
+     *
+     * <p>This method is, and overrides of this method must be, safe for concurrent use by multiple threads.</p>
+     *
+     * @param propertyName the name of a property; never {@code null}
+     *
+     * @return the timeout for remote calls made on behalf of the supplied {@code propertyName}, or {@code null}; a zero
+     * or negative {@link Duration} is treated as if it were {@code null}
+     *
+     * @see #getValue(String, Duration)
+     */
+    protected Duration timeout(String propertyName) {
+        return null;
+    }
+
+    /**
+     * Returns {@code true} if the secret backing the supplied {@code propertyName} should be watched for a version in
+     * the {@linkplain GetSecretBundleRequest.Stage#Pending pending} stage, so that its value is already on hand when
+     * that version is promoted.
+     *
+     * <p>This method is consulted only for properties that are {@linkplain #refreshInterval(String) refreshed}, and
+     * only if their requests name neither a version number nor a version name, and request either no stage or the
+     * {@linkplain GetSecretBundleRequest.Stage#Current current} or {@linkplain GetSecretBundleRequest.Stage#Latest
+     * latest} stage.</p>
+     *
+     * <p>A pending version is always the latest version too, so a property whose request asks for the latest stage
+     * could never have a pending version staged alongside it.  When this method returns {@code true} for such a
+     * property, its request asks for the current stage instead, before the property's first value is fetched; its
+     * value is therefore the current version's, and a pending version is served only once it is promoted.</p>
+     *
+     * <p>When this method returns {@code true}, each background refresh that finds no new version also fetches the
+     * secret's pending version, if there is one, and stages its value alongside the cached value.  While a version is
+     * staged, refreshes poll that version alone; as soon as its stages include {@linkplain
+     * SecretBundle.Stages#Current current}, the staged value becomes the cached value and a {@link SecretBundleChange}
+     * is {@linkplain #changes() published}, without a further fetch of the secret's content.  A rotation therefore
+     * costs no extra remote calls at the moment of promotion, so many instances refreshing at once do not all fetch the
+     * new version together.  If the staged version is deleted or deprecated instead, it is discarded and refreshing
+     * resumes as usual.</p>
+     *
+     * <p>When no version is staged, this doubles the number of remote calls made by each refresh.  While a version is
+     * staged, a new current version created directly, bypassing the pending one, is not noticed until the staged
+     * version is discarded.</p>
+     *
+     * <p>The default implementation of this method returns {@code false}.</p>
+     *
+     * <p>This method is, and overrides of this method must be, safe for concurrent use by multiple threads.</p>
+     *
+     * @param propertyName the name of a property; never {@code null}
+     *
+     * @return {@code true} if pending versions of the secret backing the supplied {@code propertyName} should be
+     * staged
+     *
+     * @see #refreshInterval(String)
+     */
+    protected boolean prestage(String propertyName) {
+        return false;
+    }
+
+    // Returns true if a new version was seen.
+    private boolean refresh(String propertyName) {
+        Entry entry = this.entries.get(propertyName);
+        if (entry == null) {
+            return false;
+        }
+        Duration timeout = this.guarded(() -> this.timeout(propertyName));
+        try {
+            if (entry.pendingVersionNumber() != null) {
+                // Poll the staged version itself; its stages reveal its promotion without a fetch of the current one.
+                SecretBundle staged = this.fetchIfExists(GetSecretBundleRequest.builder()
+                                                         .copy(entry.request())
+                                                         .stage(null)
+                                                         .versionNumber(entry.pendingVersionNumber())
+                                                         .build(),
+                                                         timeout);
+                List<SecretBundle.Stages> stages = staged == null ? null : staged.getStages();
+                if (stages != null && stages.contains(SecretBundle.Stages.Current)) {
+                    return this.update(propertyName,
+                                       entry,
+                                       new Entry(entry.request(), entry.pendingVersionNumber(), entry.pendingValue()));
+                } else if (stages != null && stages.contains(SecretBundle.Stages.Pending)) {
+                    return false;
+                }
+                // Deleted or deprecated without ever being promoted.
+                Entry unstaged = new Entry(entry.request(), entry.versionNumber(), entry.value());
+                if (!this.entries.replace(propertyName, entry, unstaged)) {
+                    return false;
+                }
+                entry = unstaged;
+            }
+            SecretBundle secretBundle = this.fetch(entry.request(), timeout);
+            Long versionNumber = secretBundle.getVersionNumber();
+            if (!Objects.equals(versionNumber, entry.versionNumber())) {
+                return this.update(propertyName, entry, new Entry(entry.request(), versionNumber, value(secretBundle)));
+            }
+            if (prestageable(entry.request()) && this.guarded(() -> this.prestage(propertyName))) {
+                SecretBundle pending = this.fetchIfExists(GetSecretBundleRequest.builder()
+                                                          .copy(entry.request())
+                                                          .stage(GetSecretBundleRequest.Stage.Pending)
+                                                          .build(),
+                                                          timeout);
+                if (pending != null && !Objects.equals(pending.getVersionNumber(), versionNumber)) {
+                    this.entries.replace(propertyName,
+                                         entry,
+                                         new Entry(entry.request(),
+                                                   versionNumber,
+                                                   entry.value(),
+                                                   pending.getVersionNumber(),
+                                                   value(pending)));
+                }
+            }
+            return false;
+        } catch (RuntimeException runtimeException) {
+            // Keep the cached value; a later refresh may succeed.
+            LOGGER.log(Logger.Level.WARNING, "Failed to refresh " + propertyName, runtimeException);
+            return false;
+        }
+    }
+
+    // Returns true if a new version of any member was seen.
+    private boolean refresh(SecretGroup group) {
+        SecretGroup.Snapshot snapshot = group.current();
+        SecretGroup.Snapshot newSnapshot;
+        try {
+            newSnapshot = this.snapshot(group.requests());
+        } catch (RuntimeException runtimeException) {
+            // Keep the current snapshot; a later refresh may succeed.
+            LOGGER.log(Logger.Level.WARNING, "Failed to refresh " + group.requests().keySet(), runtimeException);
+            return false;
+        }
+        if (newSnapshot.versionNumbers().equals(snapshot.versionNumbers())) {
+            return false;
+        }
+        group.current(newSnapshot);
+        for (Map.Entry<String, Long> e : newSnapshot.versionNumbers().entrySet()) {
+            Long previousVersionNumber = snapshot.versionNumbers().get(e.getKey());
+            if (!Objects.equals(previousVersionNumber, e.getValue())) {
+                this.publish(new SecretBundleChange(e.getKey(),
+                                                    previousVersionNumber,
+                                                    e.getValue(),
+                                                    newSnapshot.values().get(e.getKey())));
+            }
+        }
+        return true;
+    }
+
+    // Replaces entry with newEntry and announces the change; returns true if the replacement happened.
+    private boolean update(String propertyName, Entry entry, Entry newEntry) {
+        if (!this.entries.replace(propertyName, entry, newEntry)) {
+            return false;
+        }
+        this.composites.values().removeIf(c -> c.references().containsKey(propertyName));
+        this.publish(new SecretBundleChange(propertyName,
+                                            entry.versionNumber(),
+                                            newEntry.versionNumber(),
+                                            newEntry.value()));
+        return true;
+    }
+
+    // Never blocks the refreshing thread: a subscriber whose buffer is full misses the change instead.
+    private void publish(SecretBundleChange change) {
+        this.publisher.offer(change, (subscriber, c) -> {
+                LOGGER.log(Logger.Level.WARNING, "Dropped " + c + " for slow subscriber " + subscriber);
+                return false;
+            });
+    }
+
+    // Like fetch(GetSecretBundleRequest, Duration), but returns null if there is no such secret version.
+    private SecretBundle fetchIfExists(GetSecretBundleRequest request, Duration timeout) {
+        try {
+            return this.fetch(request, timeout);
+        } catch (BmcException bmcException) {
+            if (bmcException.getStatusCode() == 404) {
+                return null;
+            }
+            throw bmcException;
+        }
+    }
+
+    private Loaded await(CompletableFuture<Loaded> prefetch, String propertyName, Duration timeout) {
+        try {
+            return timeout == null || timeout.isNegative() || timeout.isZero() ?
+                prefetch.get() :
+                prefetch.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException executionException) {
+            // The prefetch failed; try again on the caller's behalf so it sees the failure directly, if it recurs.
+            return this.fetchValue(propertyName, timeout);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(interruptedException.getMessage(), interruptedException);
+        } catch (TimeoutException timeoutException) {
+            throw new IllegalStateException("Timed out after " + timeout + " awaiting prefetch of " + propertyName,
+                                            timeoutException);
+        }
+    }
+
+    private SecretBundle fetch(GetSecretBundleRequest request, Duration timeout) {
+        String principal = this.guarded(this::sharedCachePrincipal);
+        if (principal == null) {
+            return this.nodeFetch(principal, request, timeout);
+        }
+        return SharedSecretBundleCache.get(principal,
+                                           request,
+                                           this.guarded(this::sharedCacheTimeToLive).toNanos(),
+                                           timeout,
+                                           () -> this.nodeFetch(principal, request, timeout));
+    }
+
+    private SecretBundle nodeFetch(String principal, GetSecretBundleRequest request, Duration timeout) {
+        Supplier<SecretBundle> call =
+            () -> this.call(() -> this.secrets().getSecretBundle(request).getSecretBundle(),
+                            "secret " + request.getSecretId(),
+                            timeout);
+        // Without a principal there is nothing to keep one principal's entries from another's, so nothing is shared.
+        NodeSecretBundleCache nodeCache = principal == null ? null : this.guarded(this::nodeSecretBundleCache);
+        return nodeCache == null ? call.get() : nodeCache.get(principal, request, timeout, call);
+    }
+
+    // Like fetch(GetSecretBundleRequest, Duration), but by name, on behalf of a SecretNameResolver.
+    private SecretBundle fetch(GetSecretBundleByNameRequest request, Duration timeout) {
+        String principal = this.guarded(this::sharedCachePrincipal);
+        if (principal == null) {
+            return this.nodeFetch(principal, request, timeout);
+        }
+        return SharedSecretBundleCache.get(principal,
+                                           request,
+                                           this.guarded(this::sharedCacheTimeToLive).toNanos(),
+                                           timeout,
+                                           () -> this.nodeFetch(principal, request, timeout));
+    }
+
+    private SecretBundle nodeFetch(String principal, GetSecretBundleByNameRequest request, Duration timeout) {
+        Supplier<SecretBundle> call =
+            () -> this.call(() -> this.secrets().getSecretBundleByName(request).getSecretBundle(),
+                            "secret " + request.getSecretName() + " in vault " + request.getVaultId(),
+                            timeout);
+        // Without a principal there is nothing to keep one principal's entries from another's, so nothing is shared.
+        NodeSecretBundleCache nodeCache = principal == null ? null : this.guarded(this::nodeSecretBundleCache);
+        return nodeCache == null ? call.get() : nodeCache.get(principal, request, timeout, call);
+    }
+
+    private SecretBundle call(Supplier<? extends SecretBundle> remoteCall, String description, Duration timeout) {
+        if (timeout == null || timeout.isNegative() || timeout.isZero()) {
+            return remoteCall.get();
+        }
+        Future<SecretBundle> future = this.caller().submit(remoteCall::get);
+        try {
+            return future.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException executionException) {
+            Throwable cause = executionException.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            } else if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(cause.getMessage(), cause);
+        } catch (InterruptedException interruptedException) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(interruptedException.getMessage(), interruptedException);
+        } catch (TimeoutException timeoutException) {
+            future.cancel(true);
+            throw new IllegalStateException("Timed out after " + timeout + " fetching " + description, timeoutException);
+        }
+    }
+
+    private ExecutorService caller() {
+        ExecutorService caller = this.caller; // volatile read
+        if (caller == null) {
+            caller = Executors.newCachedThreadPool(r -> {
+                    Thread t = new Thread(r, this.getName() + " caller");
+                    t.setDaemon(true);
+                    return t;
+                });
+            if (!CALLER.compareAndSet(this, null, caller)) { // volatile write
+                caller.shutdown();
+                return this.caller; // volatile read
+            }
+        }
+        return caller;
+    }
+
+    private StartupPrefetcher<Loaded> prefetcher() {
+        StartupPrefetcher<Loaded> prefetcher = this.prefetcher; // volatile read
+        if (prefetcher == null) {
+            prefetcher = new StartupPrefetcher<>();
+            if (!PREFETCHER.compareAndSet(this, null, prefetcher)) { // volatile write
+                return this.prefetcher; // volatile read
+            }
+            // Only the thread that installed the prefetcher gets here, so the hooks are invoked at most once.
+            Path manifest = null;
+            Duration window = null;
+            try {
+                Path m = this.guarded(this::prefetchManifest);
+                window = m == null ? null : this.guarded(this::prefetchWindow);
+                manifest = m;
+            } finally {
+                prefetcher.start(manifest, window, pn -> this.fetchValue(pn, null), this.caller());
+            }
+        }
+        return prefetcher;
+    }
+
+    // Runs the supplied Supplier, which may consult configuration that includes this ConfigSource, such that any
+    // reentrant invocation of getValue(String, Duration) on this thread returns null immediately.
+    private <T> T guarded(Supplier<? extends T> s) {
+        if (this.resolving.get() != null) {
+            return s.get();
+        }
+        this.resolving.set(Boolean.TRUE);
+        try {
+            return s.get();
+        } finally {
+            this.resolving.remove();
+        }
+    }
+
+    private RefreshScheduler refresher() {
+        RefreshScheduler refresher = this.refresher; // volatile read
+        if (refresher == null) {
+            RefreshScheduler supplied = this.guarded(this::refreshScheduler);
+            refresher = supplied == null ? new RefreshScheduler() : supplied;
+            // Every racer computes the same answer, since refreshScheduler() returns the same value every time.
+            this.ownsRefresher = supplied == null; // volatile write
+            if (!REFRESHER.compareAndSet(this, null, refresher)) { // volatile write
+                if (supplied == null) {
+                    refresher.close();
+                }
+                return this.refresher; // volatile read
+            }
+        }
+        return refresher;
+    }
+
+    // Schedules a task on the refresher, remembering its Handle so that closing this ConfigSource cancels it even when
+    // the refresher is shared with others.
+    private RefreshScheduler.Handle schedule(Duration interval, BooleanSupplier task) {
+        this.handles.removeIf(RefreshScheduler.Handle::cancelled);
+        RefreshScheduler.Handle handle = this.refresher().schedule(interval, task);
+        this.handles.add(handle);
+        return handle;
+    }
+
     private Secrets secrets() {
         Secrets secrets = this.secrets; // volatile read
         if (secrets == null) {
@@ -232,4 +1201,112 @@ public class SecretBundleConfigSource implements AutoCloseable, ConfigSource {
         return secrets;
     }
 
+
+    /*
+     * Static methods.
+     */
+
+
+    // Returns the distinct property names referenced by the supplied template, in order of first appearance.
+    private static Set<String> references(String template) {
+        Set<String> references = new LinkedHashSet<>();
+        int start = template.indexOf("${");
+        while (start >= 0) {
+            int end = template.indexOf('}', start + 2);
+            if (end < 0) {
+                break;
+            }
+            references.add(template.substring(start + 2, end));
+            start = template.indexOf("${", end + 1);
+        }
+        return references;
+    }
+
+    private static String expand(String template, Map<? extends String, ? extends String> values) {
+        StringBuilder sb = new StringBuilder(template.length() + 64);
+        int from = 0;
+        int start = template.indexOf("${");
+        while (start >= 0) {
+            int end = template.indexOf('}', start + 2);
+            if (end < 0) {
+                break;
+            }
+            sb.append(template, from, start).append(values.get(template.substring(start + 2, end)));
+            from = end + 1;
+            start = template.indexOf("${", from);
+        }
+        return sb.append(template, from, template.length()).toString();
+    }
+
+    // Returns true if the supplied SecretBundle is what the supplied request would fetch.
+    private static boolean answers(SecretBundle secretBundle, GetSecretBundleRequest request) {
+        if (request.getVersionNumber() != null) {
+            return request.getVersionNumber().equals(secretBundle.getVersionNumber());
+        } else if (request.getSecretVersionName() != null) {
+            return request.getSecretVersionName().equals(secretBundle.getVersionName());
+        }
+        GetSecretBundleRequest.Stage stage = request.getStage();
+        List<SecretBundle.Stages> stages = secretBundle.getStages();
+        return stages != null
+            && stages.contains(stage == null ? SecretBundle.Stages.Current : SecretBundle.Stages.valueOf(stage.name()));
+    }
+
+    // Latest is absent on purpose: fetchValue(String, Duration) has already replaced it with Current if
+    // prestage(String) is in effect.
+    private static boolean prestageable(GetSecretBundleRequest request) {
+        GetSecretBundleRequest.Stage stage = request.getStage();
+        return request.getVersionNumber() == null
+            && request.getSecretVersionName() == null
+            && (stage == null || stage == GetSecretBundleRequest.Stage.Current);
+    }
+
+    private static String value(SecretBundle secretBundle) {
+        if (secretBundle.getSecretBundleContent() instanceof Base64SecretBundleContentDetails b64) {
+            String content = b64.getContent();
+            if (content != null && content.startsWith(GZIP_BASE64_PREFIX)) {
+                // Decode and inflate in one streaming pass, without materializing the compressed bytes.  The content is
+                // not valid UTF-8, so failing to inflate it is an error rather than a reason to return it as text.
+                InputStream base64 = new ByteArrayInputStream(content.getBytes(StandardCharsets.ISO_8859_1));
+                byte[] bytes;
+                try (InputStream in = new GZIPInputStream(Base64.getDecoder().wrap(base64))) {
+                    bytes = in.readNBytes(MAX_INFLATED_LENGTH + 1);
+                } catch (IOException ioException) {
+                    throw new UncheckedIOException("Failed to inflate gzip-compressed secret " + secretBundle.getSecretId(),
+                                                   ioException);
+                }
+                if (bytes.length > MAX_INFLATED_LENGTH) {
+                    throw new IllegalStateException("Gzip-compressed secret " + secretBundle.getSecretId()
+                                                    + " inflates to more than " + MAX_INFLATED_LENGTH + " bytes");
+                }
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+            return new String(Base64.getDecoder().decode(content), StandardCharsets.UTF_8);
+        }
+        return null;
+    }
+
+
+    /*
+     * Inner and nested classes.
+     */
+
+
+    // pendingVersionNumber and pendingValue describe a staged pending version, if prestage(String) is in effect.
+    private record Entry(GetSecretBundleRequest request,
+                         Long versionNumber,
+                         String value,
+                         Long pendingVersionNumber,
+                         String pendingValue) {
+
+        private Entry(GetSecretBundleRequest request, Long versionNumber, String value) {
+            this(request, versionNumber, value, null, null);
+        }
+
+    }
+
+    private record Composite(Map<String, String> references, String value) {}
+
+    // refreshInterval is null if the property is not refreshed.
+    private record Loaded(Entry entry, Duration refreshInterval) {}
+
 }
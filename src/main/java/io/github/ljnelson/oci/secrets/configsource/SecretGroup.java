@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2022–2023 Laird Nelson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package io.github.ljnelson.oci.secrets.configsource;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.oracle.bmc.secrets.requests.GetSecretBundleRequest;
+
+/**
+ * A group of related properties, such as a user name and a password, whose values are always read together from a
+ * single consistent snapshot.
+ *
+ * <p>Instances of this class are created by the {@link SecretBundleConfigSource#group(java.util.Collection)}
+ * method.  A {@link SecretGroup} that is refreshed in the background should be {@linkplain #close() closed} when it is
+ * no longer needed.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson/" target="_top">Laird Nelson</a>
+ *
+ * @see #snapshot()
+ *
+ * @see SecretBundleConfigSource#group(java.util.Collection)
+ */
+public final class SecretGroup implements AutoCloseable {
+
+
+    /*
+     * Instance fields.
+     */
+
+
+    private final Map<String, GetSecretBundleRequest> requests;
+
+    private volatile Snapshot snapshot;
+
+    private volatile RefreshScheduler.Handle handle;
+
+
+    /*
+     * Constructors.
+     */
+
+
+    SecretGroup(Map<String, GetSecretBundleRequest> requests, Snapshot snapshot) {
+        super();
+        this.requests = Collections.unmodifiableMap(new LinkedHashMap<>(requests));
+        this.snapshot = snapshot;
+    }
+
+
+    /*
+     * Instance methods.
+     */
+
+
+    /**
+     * Returns an immutable {@link Map} of the values of every property in this {@link SecretGroup}, indexed by property
+     * name, as of the most recent fetch of the whole group.
+     *
+     * <p>All values in the returned {@link Map} were fetched together.  A background refresh replaces them all at once,
+     * so the returned {@link Map} never mixes values from two different refreshes.  A property whose secret has no
+     * textual value is absent from the returned {@link Map}.</p>
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * <p>This method is safe for concurrent use by multiple threads, and never blocks.</p>
+     *
+     * @return a non-{@code null}, immutable {@link Map}
+     */
+    public final Map<String, String> snapshot() {
+        return this.snapshot.values(); // volatile read
+    }
+
+    /**
+     * Stops refreshing this {@link SecretGroup} in the background.
+     *
+     * <p>The {@linkplain #snapshot() snapshot} current at the time of the call remains available.</p>
+     *
+     * <p>This method is idempotent and safe for concurrent use by multiple threads.</p>
+     */
+    @Override // AutoCloseable
+    public final void close() {
+        RefreshScheduler.Handle handle = this.handle; // volatile read
+        if (handle != null) {
+            handle.cancel();
+        }
+    }
+
+    final void handle(RefreshScheduler.Handle handle) {
+        this.handle = handle; // volatile write
+    }
+
+    final Map<String, GetSecretBundleRequest> requests() {
+        return this.requests;
+    }
+
+    final Snapshot current() {
+        return this.snapshot; // volatile read
+    }
+
+    final void current(Snapshot snapshot) {
+        this.snapshot = snapshot; // volatile write
+    }
+
+
+    /*
+     * Inner and nested classes.
+     */
+
+
+    // versionNumbers may contain null values, so it is not a Map.copyOf() copy.
+    record Snapshot(Map<String, String> values, Map<String, Long> versionNumbers) {}
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright © 2022–2023 Laird Nelson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package io.github.ljnelson.oci.secrets.configsource;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.oracle.bmc.secrets.Secrets;
+import com.oracle.bmc.secrets.model.SecretBundle;
+import com.oracle.bmc.secrets.requests.GetSecretBundleByNameRequest;
+
+/**
+ * A {@link BiFunction} that, when supplied with a vault OCID and the name of a secret in that vault, returns the OCID
+ * of the secret.
+ *
+ * <p>Each name is resolved at most once, with a {@link GetSecretBundleByNameRequest}; the resulting OCID is cached for
+ * the life of the {@link SecretNameResolver}.  A secret's OCID never changes once it is created, so all subsequent
+ * fetches, including background refreshes, may use the cheaper by-OCID path.</p>
+ *
+ * <p>A {@link SecretNameResolver} {@linkplain #SecretNameResolver() created without a <code>Supplier</code>} has the
+ * {@link SecretBundleConfigSource} whose builder function invokes it fetch the secret by name on its behalf.  That
+ * fetch uses the {@link SecretBundleConfigSource}'s {@link Secrets} client, is bounded by its {@linkplain
+ * SecretBundleConfigSource#timeout(String) timeout}, and goes through the caches it shares with other instances and
+ * processes, keyed by vault OCID, secret name and stage.  The fetched secret bundle is handed back to that {@link
+ * SecretBundleConfigSource}, so resolving a name and retrieving the first value of its secret together cost at most
+ * one remote call.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson/" target="_top">Laird Nelson</a>
+ *
+ * @see #apply(String, String)
+ *
+ * @see ConfigurationBackedBuilderFunction
+ */
+public final class SecretNameResolver implements AutoCloseable, BiFunction<String, String, String> {
+
+
+    /*
+     * Static fields.
+     */
+
+
+    private static final VarHandle SECRETS;
+
+    // Set by a SecretBundleConfigSource while its builder function runs on the current thread.
+    private static final ThreadLocal<Scope> SCOPE = new ThreadLocal<>();
+
+    static {
+        try {
+            SECRETS = MethodHandles.lookup().findVarHandle(SecretNameResolver.class, "secrets", Secrets.class);
+        } catch (final NoSuchFieldException | IllegalAccessException reflectiveOperationException) {
+            throw new ExceptionInInitializerError(reflectiveOperationException);
+        }
+    }
+
+
+    /*
+     * Instance fields.
+     */
+
+
+    private volatile Secrets secrets;
+
+    private final Supplier<? extends Secrets> secretsSupplier;
+
+    private final ConcurrentMap<Key, String> secretIds;
+
+
+    /*
+     * Constructors.
+     */
+
+
+    /**
+     * Creates a new {@link SecretNameResolver} that uses the {@link Secrets} client of the {@link
+     * SecretBundleConfigSource} whose builder function invokes its {@link #apply(String, String)} method.
+     *
+     * <p>Such a {@link SecretNameResolver} never creates or owns a {@link Secrets} client of its own, and so there is
+     * nothing for its {@link #close()} method to close.  Its {@link #apply(String, String)} method throws an {@link
+     * IllegalStateException} if it is invoked other than on behalf of a {@link SecretBundleConfigSource} and the name
+     * has not already been resolved.</p>
+     *
+     * @see #SecretNameResolver(Supplier)
+     */
+    public SecretNameResolver() {
+        super();
+        this.secretsSupplier = null;
+        this.secretIds = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Creates a new {@link SecretNameResolver} that uses a {@link Secrets} client of its own.
+     *
+     * <p>The {@link Secrets} client is closed when this {@link SecretNameResolver} is {@linkplain #close()
+     * closed}.</p>
+     *
+     * @param secretsSupplier a {@link Supplier} that returns {@link Secrets} instances; will be invoked at most once,
+     * the first time a name needs to be resolved; must not be {@code null}
+     *
+     * @exception NullPointerException if {@code secretsSupplier} is {@code null}
+     *
+     * @see #SecretNameResolver()
+     */
+    public SecretNameResolver(Supplier<? extends Secrets> secretsSupplier) {
+        super();
+        this.secretsSupplier = Objects.requireNonNull(secretsSupplier, "secretsSupplier");
+        this.secretIds = new ConcurrentHashMap<>();
+    }
+
+
+    /*
+     * Instance methods.
+     */
+
+
+    /**
+     * Returns the OCID of the secret with the supplied {@code secretName} in the vault identified by the supplied
+     * {@code vaultId}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * <p>This method is safe for concurrent use by multiple threads.</p>
+     *
+     * @param vaultId the OCID of a vault; must not be {@code null}
+     *
+     * @param secretName the name of a secret in that vault; must not be {@code null}
+     *
+     * @return the non-{@code null} OCID of the named secret
+     *
+     * @exception NullPointerException if either argument is {@code null}
+     *
+     * @exception IllegalStateException if this {@link SecretNameResolver} was {@linkplain #SecretNameResolver()
+     * created without a <code>Supplier</code>} and is not being invoked on behalf of a {@link
+     * SecretBundleConfigSource}, or if a fetch made on behalf of a {@link SecretBundleConfigSource} exceeded its
+     * timeout
+     *
+     * @exception com.oracle.bmc.model.BmcException if the secret could not be found or the remote call failed
+     */
+    @Override // BiFunction
+    public final String apply(String vaultId, String secretName) {
+        Key key = new Key(Objects.requireNonNull(vaultId, "vaultId"), Objects.requireNonNull(secretName, "secretName"));
+        String secretId = this.secretIds.get(key);
+        if (secretId == null) {
+            // Two threads racing here will both resolve the name, which is harmless; holding a map lock across a
+            // remote call would not be.
+            Scope scope = this.secretsSupplier == null ? SCOPE.get() : null;
+            if (this.secretsSupplier == null && scope == null) {
+                throw new IllegalStateException("Not invoked on behalf of a SecretBundleConfigSource");
+            }
+            GetSecretBundleByNameRequest request = GetSecretBundleByNameRequest.builder()
+                .vaultId(vaultId)
+                .secretName(secretName)
+                .build();
+            SecretBundle secretBundle = scope == null ?
+                this.secrets().getSecretBundleByName(request).getSecretBundle() :
+                scope.fetcher().apply(request);
+            secretId = secretBundle.getSecretId();
+            if (scope != null) {
+                scope.resolved().accept(secretId, secretBundle);
+            }
+            String existing = this.secretIds.putIfAbsent(key, Objects.requireNonNull(secretId, "secretId"));
+            if (existing != null) {
+                secretId = existing;
+            }
+        }
+        return secretId;
+    }
+
+    /**
+     * Closes the {@link Secrets} client, if any, that this {@link SecretNameResolver} acquired from the {@link
+     * Supplier} {@linkplain #SecretNameResolver(Supplier) supplied at construction time}.
+     *
+     * @exception IllegalStateException if the {@link Secrets} client could not be closed
+     */
+    @Override // AutoCloseable
+    public final void close() {
+        Secrets secrets = this.secrets; // volatile read
+        if (secrets != null) {
+            try {
+                secrets.close();
+            } catch (RuntimeException runtimeException) {
+                throw runtimeException;
+            } catch (Exception exception) {
+                if (exception instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IllegalStateException(exception.getMessage(), exception);
+            }
+        }
+    }
+
+    private Secrets secrets() {
+        Secrets secrets = this.secrets; // volatile read
+        if (secrets == null) {
+            secrets = this.secretsSupplier.get();
+            if (!SECRETS.compareAndSet(this, null, Objects.requireNonNull(secrets, "secretsSupplier.get() == null"))) { // volatile write
+                return this.secrets; // volatile read
+            }
+        }
+        return secrets;
+    }
+
+
+    /*
+     * Static methods.
+     */
+
+
+    // Runs the supplied Supplier such that any default SecretNameResolver it invokes on this thread fetches by name with
+    // the supplied Function and reports each secret bundle it fetches, indexed by secret OCID, to the supplied
+    // BiConsumer.
+    static <T> T within(Function<? super GetSecretBundleByNameRequest, ? extends SecretBundle> fetcher,
+                        BiConsumer<? super String, ? super SecretBundle> resolved,
+                        Supplier<? extends T> s) {
+        Scope previous = SCOPE.get();
+        SCOPE.set(new Scope(fetcher, resolved));
+        try {
+            return s.get();
+        } finally {
+            if (previous == null) {
+                SCOPE.remove();
+            } else {
+                SCOPE.set(previous);
+            }
+        }
+    }
+
+
+    /*
+     * Inner and nested classes.
+     */
+
+
+    private record Key(String vaultId, String secretName) {}
+
+    private record Scope(Function<? super GetSecretBundleByNameRequest, ? extends SecretBundle> fetcher,
+                         BiConsumer<? super String, ? super SecretBundle> resolved) {}
+
+}
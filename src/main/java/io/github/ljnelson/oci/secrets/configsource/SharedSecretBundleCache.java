@@ -0,0 +1,228 @@
+/*
+ * Copyright © 2022–2023 Laird Nelson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package io.github.ljnelson.oci.secrets.configsource;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import com.oracle.bmc.secrets.model.SecretBundle;
+import com.oracle.bmc.secrets.requests.GetSecretBundleByNameRequest;
+import com.oracle.bmc.secrets.requests.GetSecretBundleRequest;
+
+/**
+ * A cache of {@link SecretBundle}s shared by every {@link SecretBundleConfigSource} whose class was loaded by the same
+ * class loader as this class, keyed by the identity of the {@link GetSecretBundleRequest} or {@link
+ * GetSecretBundleByNameRequest} that fetched each one and by the authentication principal on whose behalf it was
+ * fetched.
+ *
+ * <p>Concurrent requests for the same key are coalesced into a single fetch.  Failed fetches are not cached.  Each
+ * entry is removed once the time-to-live in effect when it was fetched has passed, so expired secret content does not
+ * stay reachable.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson/" target="_top">Laird Nelson</a>
+ *
+ * @see SecretBundleConfigSource#sharedCachePrincipal()
+ */
+final class SharedSecretBundleCache {
+
+
+    /*
+     * Static fields.
+     */
+
+
+    private static final ConcurrentMap<Key, Entry> ENTRIES = new ConcurrentHashMap<>();
+
+
+    /*
+     * Constructors.
+     */
+
+
+    private SharedSecretBundleCache() {
+        super();
+    }
+
+
+    /*
+     * Static methods.
+     */
+
+
+    /**
+     * Returns a {@link SecretBundle} for the supplied {@code principal} and {@code request}, fetching it with the
+     * supplied {@code fetcher} only if no other caller has fetched it within the last {@code timeToLiveNanos}
+     * nanoseconds and no other caller is fetching it now.
+     *
+     * @param principal an opaque identifier for the authentication principal; must not be {@code null}
+     *
+     * @param request the {@link GetSecretBundleRequest}; must not be {@code null}
+     *
+     * @param timeToLiveNanos how long a fetched {@link SecretBundle} may be reused, in nanoseconds
+     *
+     * @param timeout the longest time to wait for another caller's fetch; may be {@code null}, zero or negative, in
+     * which case the wait is unbounded
+     *
+     * @param fetcher a {@link Supplier} that actually fetches a {@link SecretBundle}; must not be {@code null}
+     *
+     * @return a {@link SecretBundle}
+     *
+     * @exception IllegalStateException if the calling thread is interrupted while waiting for another caller's fetch,
+     * or if that fetch does not complete within the supplied {@code timeout}
+     */
+    static SecretBundle get(String principal,
+                            GetSecretBundleRequest request,
+                            long timeToLiveNanos,
+                            Duration timeout,
+                            Supplier<? extends SecretBundle> fetcher) {
+        return get(new Key(Objects.requireNonNull(principal, "principal"),
+                           request.getSecretId(),
+                           null,
+                           null,
+                           request.getVersionNumber(),
+                           request.getSecretVersionName(),
+                           request.getStage() == null ? null : request.getStage().name()),
+                   "secret " + request.getSecretId(),
+                   timeToLiveNanos,
+                   timeout,
+                   fetcher);
+    }
+
+    /**
+     * Returns a {@link SecretBundle} for the supplied {@code principal} and {@code request}, fetching it with the
+     * supplied {@code fetcher} only if no other caller has fetched it within the last {@code timeToLiveNanos}
+     * nanoseconds and no other caller is fetching it now.
+     *
+     * <p>Entries fetched by name never satisfy requests by OCID, and vice versa.</p>
+     *
+     * @param principal an opaque identifier for the authentication principal; must not be {@code null}
+     *
+     * @param request the {@link GetSecretBundleByNameRequest}; must not be {@code null}
+     *
+     * @param timeToLiveNanos how long a fetched {@link SecretBundle} may be reused, in nanoseconds
+     *
+     * @param timeout the longest time to wait for another caller's fetch; may be {@code null}, zero or negative, in
+     * which case the wait is unbounded
+     *
+     * @param fetcher a {@link Supplier} that actually fetches a {@link SecretBundle}; must not be {@code null}
+     *
+     * @return a {@link SecretBundle}
+     *
+     * @exception IllegalStateException if the calling thread is interrupted while waiting for another caller's fetch,
+     * or if that fetch does not complete within the supplied {@code timeout}
+     */
+    static SecretBundle get(String principal,
+                            GetSecretBundleByNameRequest request,
+                            long timeToLiveNanos,
+                            Duration timeout,
+                            Supplier<? extends SecretBundle> fetcher) {
+        return get(new Key(Objects.requireNonNull(principal, "principal"),
+                           null,
+                           request.getVaultId(),
+                           request.getSecretName(),
+                           request.getVersionNumber(),
+                           request.getSecretVersionName(),
+                           request.getStage() == null ? null : request.getStage().name()),
+                   "secret " + request.getSecretName() + " in vault " + request.getVaultId(),
+                   timeToLiveNanos,
+                   timeout,
+                   fetcher);
+    }
+
+    private static SecretBundle get(Key key,
+                                    String description,
+                                    long timeToLiveNanos,
+                                    Duration timeout,
+                                    Supplier<? extends SecretBundle> fetcher) {
+        while (true) {
+            Entry entry = ENTRIES.get(key);
+            if (entry == null || entry.expired(timeToLiveNanos)) {
+                Entry newEntry = new Entry();
+                if (entry == null ? ENTRIES.putIfAbsent(key, newEntry) != null : !ENTRIES.replace(key, entry, newEntry)) {
+                    // Someone else got there first; use theirs.
+                    continue;
+                }
+                try {
+                    SecretBundle secretBundle = fetcher.get();
+                    newEntry.complete(secretBundle);
+                    CompletableFuture.delayedExecutor(timeToLiveNanos, TimeUnit.NANOSECONDS)
+                        .execute(() -> ENTRIES.remove(key, newEntry));
+                    return secretBundle;
+                } catch (RuntimeException | Error e) {
+                    ENTRIES.remove(key, newEntry);
+                    newEntry.future.completeExceptionally(e);
+                    throw e;
+                }
+            }
+            try {
+                return timeout == null || timeout.isNegative() || timeout.isZero() ?
+                    entry.future.get() :
+                    entry.future.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException timeoutException) {
+                throw new IllegalStateException("Timed out after " + timeout + " awaiting another fetch of " + description,
+                                                timeoutException);
+            } catch (ExecutionException executionException) {
+                // The fetch we were waiting on failed and has been evicted; try again ourselves.
+                continue;
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(interruptedException.getMessage(), interruptedException);
+            }
+        }
+    }
+
+
+    /*
+     * Inner and nested classes.
+     */
+
+
+    // A request by OCID has a secretId; a request by name has a vaultId and a secretName instead.
+    private record Key(String principal,
+                       String secretId,
+                       String vaultId,
+                       String secretName,
+                       Long versionNumber,
+                       String secretVersionName,
+                       String stage) {}
+
+    private static final class Entry {
+
+        private final CompletableFuture<SecretBundle> future;
+
+        private volatile long fetchedAt;
+
+        private Entry() {
+            super();
+            this.future = new CompletableFuture<>();
+        }
+
+        private void complete(SecretBundle secretBundle) {
+            this.fetchedAt = System.nanoTime(); // volatile write
+            this.future.complete(secretBundle);
+        }
+
+        private boolean expired(long timeToLiveNanos) {
+            return this.future.isDone() && System.nanoTime() - this.fetchedAt >= timeToLiveNanos; // volatile read
+        }
+
+    }
+
+}
@@ -58,14 +58,7 @@ public final class SimpleSecretsSupplier implements Supplier<Secrets> {
      * @see SecretsClient#builder()
      */
     public SimpleSecretsSupplier() {
-        this(SecretsClient::builder,
-             () -> {
-                 try {
-                     return new ConfigFileAuthenticationDetailsProvider(ConfigFileReader.parseDefault());
-                 } catch (IOException ioException) {
-                     throw new UncheckedIOException(ioException.getMessage(), ioException);
-                 }
-             });
+        this(SecretsClient::builder, SimpleSecretsSupplier::configFileAdp);
     }
 
     /**
@@ -120,4 +113,18 @@ public final class SimpleSecretsSupplier implements Supplier<Secrets> {
         return this.builderSupplier.get().build(this.adpSupplier.get());
     }
 
+
+    /*
+     * Static methods.
+     */
+
+
+    static AbstractAuthenticationDetailsProvider configFileAdp() {
+        try {
+            return new ConfigFileAuthenticationDetailsProvider(ConfigFileReader.parseDefault());
+        } catch (IOException ioException) {
+            throw new UncheckedIOException(ioException.getMessage(), ioException);
+        }
+    }
+
 }
@@ -0,0 +1,212 @@
+/*
+ * Copyright © 2022–2023 Laird Nelson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package io.github.ljnelson.oci.secrets.configsource;
+
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Records the names of properties resolved during an application's startup window to a manifest file, and, on a later
+ * startup, fetches the properties named in that manifest in parallel before they are asked for.
+ *
+ * <p>The manifest contains property names only, one per line, and never any values.</p>
+ *
+ * <p>Prefetched values are served only within the startup window.  When the window closes, the manifest is written and
+ * any prefetched values that were never asked for are discarded, so that a property first requested long after
+ * startup is fetched afresh rather than served as it was at startup.</p>
+ *
+ * <p>A {@link StartupPrefetcher} is created unconfigured, so that it can be installed before anything is known about
+ * its manifest, and is then {@linkplain #start(Path, Duration, Function, Executor) started} exactly once.  Until then
+ * it records property names but has nothing to serve.</p>
+ *
+ * @param <T> the type of a prefetched value
+ *
+ * @author <a href="https://about.me/lairdnelson/" target="_top">Laird Nelson</a>
+ *
+ * @see SecretBundleConfigSource#prefetchManifest()
+ */
+final class StartupPrefetcher<T> {
+
+
+    /*
+     * Static fields.
+     */
+
+
+    private static final Logger LOGGER = System.getLogger(StartupPrefetcher.class.getName());
+
+
+    /*
+     * Instance fields.
+     */
+
+
+    // Written before manifest, and read after it, so that a non-null manifest publishes it.
+    private long windowEnd;
+
+    private volatile Path manifest;
+
+    private final Set<String> recorded;
+
+    private final ConcurrentMap<String, CompletableFuture<T>> prefetches;
+
+    private final AtomicBoolean written;
+
+
+    /*
+     * Constructors.
+     */
+
+
+    StartupPrefetcher() {
+        super();
+        this.recorded = ConcurrentHashMap.newKeySet();
+        this.prefetches = new ConcurrentHashMap<>();
+        this.written = new AtomicBoolean();
+    }
+
+
+    /*
+     * Instance methods.
+     */
+
+
+    /**
+     * Opens the startup window, reads the manifest, if it exists, starts asynchronously loading each property named in
+     * it, and arranges for the window to be closed when it ends.
+     *
+     * <p>This method must be invoked at most once.</p>
+     *
+     * @param manifest the {@link Path} of the manifest, or {@code null} if this {@link StartupPrefetcher} is to do
+     * nothing
+     *
+     * @param window the length of the startup window; must not be {@code null} if {@code manifest} is not {@code null}
+     *
+     * @param loader a {@link Function} that loads the value of a property; must not be {@code null} if {@code manifest}
+     * is not {@code null}
+     *
+     * @param executor the {@link Executor} on which loads, and the closing of the window, will run; must not be {@code
+     * null} if {@code manifest} is not {@code null}
+     */
+    final void start(Path manifest, Duration window, Function<? super String, ? extends T> loader, Executor executor) {
+        if (manifest == null) {
+            this.written.set(true);
+            this.recorded.clear();
+            return;
+        }
+        this.windowEnd = System.nanoTime() + window.toNanos();
+        this.manifest = manifest; // volatile write
+        CompletableFuture.delayedExecutor(Math.max(0L, this.windowEnd - System.nanoTime()), TimeUnit.NANOSECONDS, executor)
+            .execute(this::closeWindow);
+        if (!Files.isReadable(manifest)) {
+            return;
+        }
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+        } catch (IOException ioException) {
+            LOGGER.log(Logger.Level.WARNING, "Failed to read " + manifest, ioException);
+            return;
+        }
+        for (String line : lines) {
+            String propertyName = line.strip();
+            if (!propertyName.isEmpty() && !propertyName.startsWith("#")) {
+                this.prefetches.computeIfAbsent(propertyName,
+                                                pn -> CompletableFuture.supplyAsync(() -> loader.apply(pn), executor));
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the prefetch underway or completed for the supplied {@code propertyName}, or {@code null} if
+     * there is none.
+     *
+     * @param propertyName a property name; must not be {@code null}
+     *
+     * @return a {@link CompletableFuture}, or {@code null}
+     */
+    final CompletableFuture<T> take(String propertyName) {
+        if (this.prefetches.isEmpty()) {
+            return null;
+        } else if (this.manifest == null || System.nanoTime() - this.windowEnd >= 0L) { // volatile read
+            // Too old to serve; closeWindow() will discard them if it has not already.
+            return null;
+        }
+        return this.prefetches.remove(propertyName);
+    }
+
+    /**
+     * Records that the supplied {@code propertyName} was resolved to a value, writing the manifest instead if the
+     * startup window has closed.
+     *
+     * @param propertyName a property name; must not be {@code null}
+     */
+    final void record(String propertyName) {
+        if (this.written.get()) {
+            return;
+        }
+        // Until this StartupPrefetcher has been started, its window has not even opened.
+        if (this.manifest == null || System.nanoTime() - this.windowEnd < 0L) { // volatile read
+            this.recorded.add(propertyName);
+        } else {
+            this.write();
+        }
+    }
+
+    // Writes the manifest and discards prefetched values that were never asked for.
+    private void closeWindow() {
+        this.write();
+        this.prefetches.clear();
+    }
+
+    /**
+     * Writes the manifest, if it has not already been written.
+     */
+    final void write() {
+        Path manifest = this.manifest; // volatile read
+        if (!this.written.compareAndSet(false, true) || manifest == null) {
+            return;
+        }
+        List<String> lines = new ArrayList<>();
+        lines.add("# Property names resolved at startup by " + SecretBundleConfigSource.class.getName());
+        lines.addAll(new TreeSet<>(this.recorded));
+        try {
+            Path parent = manifest.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path temp = Files.createTempFile(parent, ".prefetch", ".tmp");
+            Files.write(temp, lines, StandardCharsets.UTF_8);
+            Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.log(Logger.Level.WARNING, "Failed to write " + manifest, e);
+        }
+    }
+
+}
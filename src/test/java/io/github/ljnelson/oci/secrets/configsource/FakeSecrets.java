@@ -0,0 +1,209 @@
+/*
+ * Copyright © 2022–2023 Laird Nelson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ljnelson.oci.secrets.configsource;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.oracle.bmc.model.BmcException;
+import com.oracle.bmc.secrets.Secrets;
+import com.oracle.bmc.secrets.model.Base64SecretBundleContentDetails;
+import com.oracle.bmc.secrets.model.SecretBundle;
+import com.oracle.bmc.secrets.requests.GetSecretBundleByNameRequest;
+import com.oracle.bmc.secrets.requests.GetSecretBundleRequest;
+import com.oracle.bmc.secrets.responses.GetSecretBundleByNameResponse;
+import com.oracle.bmc.secrets.responses.GetSecretBundleResponse;
+
+// An in-memory vault that answers getSecretBundle and getSecretBundleByName the way OCI does, for tests.  Each secret
+// has numbered versions; at most one is CURRENT, at most one is PENDING, and the highest is LATEST.
+final class FakeSecrets implements InvocationHandler {
+
+    final AtomicInteger getSecretBundleCalls = new AtomicInteger();
+
+    final AtomicInteger getSecretBundleByNameCalls = new AtomicInteger();
+
+    final List<GetSecretBundleRequest> requests = new CopyOnWriteArrayList<>();
+
+    final AtomicInteger interrupted = new AtomicInteger();
+
+    volatile Duration latency = Duration.ZERO;
+
+    // If non-null, thrown by every getSecretBundle call, as if by a failing endpoint.
+    volatile RuntimeException failure;
+
+    private final Map<String, Secret> secrets = new ConcurrentHashMap<>();
+
+    private final Map<String, String> names = new ConcurrentHashMap<>();
+
+    FakeSecrets() {
+        super();
+    }
+
+    // Adds a new version of secretId and makes it CURRENT.
+    FakeSecrets put(String secretId, long versionNumber, String value) {
+        return this.put(secretId, versionNumber, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    FakeSecrets put(String secretId, long versionNumber, byte[] content) {
+        Secret secret = this.secrets.computeIfAbsent(secretId, id -> new Secret());
+        secret.versions.put(versionNumber, content);
+        secret.current = versionNumber;
+        if (secret.pending != null && secret.pending == versionNumber) {
+            secret.pending = null;
+        }
+        return this;
+    }
+
+    // Adds a new version of secretId in the PENDING stage.
+    FakeSecrets stage(String secretId, long versionNumber, String value) {
+        Secret secret = this.secrets.computeIfAbsent(secretId, id -> new Secret());
+        secret.versions.put(versionNumber, value.getBytes(StandardCharsets.UTF_8));
+        secret.pending = versionNumber;
+        return this;
+    }
+
+    // Makes the PENDING version of secretId CURRENT.
+    FakeSecrets promote(String secretId) {
+        Secret secret = this.secrets.get(secretId);
+        secret.current = secret.pending;
+        secret.pending = null;
+        return this;
+    }
+
+    FakeSecrets name(String vaultId, String secretName, String secretId) {
+        this.names.put(vaultId + "/" + secretName, secretId);
+        return this;
+    }
+
+    Secrets secrets() {
+        return (Secrets) Proxy.newProxyInstance(Secrets.class.getClassLoader(), new Class<?>[] { Secrets.class }, this);
+    }
+
+    @Override // InvocationHandler
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+        case "getSecretBundle":
+            GetSecretBundleRequest request = (GetSecretBundleRequest) args[0];
+            this.getSecretBundleCalls.incrementAndGet();
+            this.requests.add(request);
+            this.sleep();
+            RuntimeException failure = this.failure;
+            if (failure != null) {
+                throw failure;
+            }
+            return GetSecretBundleResponse.builder()
+                .secretBundle(this.bundle(request.getSecretId(),
+                                          request.getVersionNumber(),
+                                          request.getStage() == null ? null : request.getStage().name()))
+                .build();
+        case "getSecretBundleByName":
+            GetSecretBundleByNameRequest byName = (GetSecretBundleByNameRequest) args[0];
+            this.getSecretBundleByNameCalls.incrementAndGet();
+            this.sleep();
+            String secretId = this.names.get(byName.getVaultId() + "/" + byName.getSecretName());
+            if (secretId == null) {
+                throw new BmcException(404, "NotAuthorizedOrNotFound", byName.getSecretName(), null);
+            }
+            return GetSecretBundleByNameResponse.builder()
+                .secretBundle(this.bundle(secretId,
+                                          byName.getVersionNumber(),
+                                          byName.getStage() == null ? null : byName.getStage().name()))
+                .build();
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        case "equals":
+            return proxy == args[0];
+        case "toString":
+            return "FakeSecrets";
+        default:
+            return null;
+        }
+    }
+
+    private void sleep() {
+        long millis = this.latency.toMillis();
+        if (millis > 0L) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException interruptedException) {
+                this.interrupted.incrementAndGet();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(interruptedException);
+            }
+        }
+    }
+
+    private SecretBundle bundle(String secretId, Long versionNumber, String stage) {
+        Secret secret = this.secrets.get(secretId);
+        Long v = null;
+        if (secret != null) {
+            if (versionNumber != null) {
+                v = versionNumber;
+            } else if ("Pending".equals(stage)) {
+                v = secret.pending;
+            } else if ("Latest".equals(stage)) {
+                v = secret.versions.keySet().stream().max(Long::compare).orElse(null);
+            } else {
+                v = secret.current;
+            }
+        }
+        if (v == null || !secret.versions.containsKey(v)) {
+            throw new BmcException(404, "NotAuthorizedOrNotFound", secretId + " " + versionNumber + " " + stage, null);
+        }
+        List<SecretBundle.Stages> stages = new ArrayList<>();
+        if (v.equals(secret.current)) {
+            stages.add(SecretBundle.Stages.Current);
+        }
+        if (v.equals(secret.pending)) {
+            stages.add(SecretBundle.Stages.Pending);
+        }
+        if (v.equals(secret.versions.keySet().stream().max(Long::compare).orElse(null))) {
+            stages.add(SecretBundle.Stages.Latest);
+        }
+        if (stages.isEmpty()) {
+            stages.add(SecretBundle.Stages.Deprecated);
+        }
+        return SecretBundle.builder()
+            .secretId(secretId)
+            .versionNumber(v)
+            .stages(stages)
+            .secretBundleContent(Base64SecretBundleContentDetails.builder()
+                                 .content(Base64.getEncoder().encodeToString(secret.versions.get(v)))
+                                 .build())
+            .build();
+    }
+
+    private static final class Secret {
+
+        private final Map<Long, byte[]> versions = new ConcurrentHashMap<>();
+
+        private volatile Long current;
+
+        private volatile Long pending;
+
+    }
+
+}
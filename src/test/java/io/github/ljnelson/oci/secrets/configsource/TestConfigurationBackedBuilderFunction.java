@@ -0,0 +1,65 @@
+/*
+ * Copyright © 2022–2023 Laird Nelson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ljnelson.oci.secrets.configsource;
+
+import java.util.Map;
+import java.util.Optional;
+
+import com.oracle.bmc.secrets.requests.GetSecretBundleRequest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestConfigurationBackedBuilderFunction {
+
+    private TestConfigurationBackedBuilderFunction() {
+        super();
+    }
+
+    @Test
+    final void testMetadataOfSecretBackedPropertyIsRejected() {
+        ConfigurationBackedBuilderFunction f = function(Map.of("db.password.secretId", "ocid1.secret.a"));
+        assertEquals("ocid1.secret.a", f.apply("db.password").build().getSecretId());
+        assertNull(f.apply("db.password.stage"));
+        assertNull(f.apply("db.password.secretId"));
+    }
+
+    @Test
+    final void testPropertyThatMerelyEndsWithASuffixIsHandled() {
+        ConfigurationBackedBuilderFunction f = function(Map.of("app.stage.secretId", "ocid1.secret.b"));
+        GetSecretBundleRequest request = f.apply("app.stage").build();
+        assertEquals("ocid1.secret.b", request.getSecretId());
+        assertEquals(GetSecretBundleRequest.Stage.Latest, request.getStage());
+    }
+
+    @Test
+    final void testSecretNameWithoutVaultIdIsRejected() {
+        ConfigurationBackedBuilderFunction f =
+            new ConfigurationBackedBuilderFunction(() -> (name, type) -> Optional.ofNullable(Map.of("db.password.secretName", "db-password").get(name)));
+        assertThrows(NullPointerException.class, () -> f.apply("db.password"));
+    }
+
+    private static ConfigurationBackedBuilderFunction function(Map<String, String> properties) {
+        return new ConfigurationBackedBuilderFunction(() -> (name, type) -> Optional.ofNullable(properties.get(name)),
+                                                      (vaultId, secretName) -> {
+                                                          throw new AssertionError();
+                                                      });
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright © 2022–2023 Laird Nelson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ljnelson.oci.secrets.configsource;
+
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Supplier;
+
+import com.oracle.bmc.model.BmcException;
+import com.oracle.bmc.secrets.Secrets;
+import com.oracle.bmc.secrets.requests.GetSecretBundleRequest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestFailoverSecretsSupplier {
+
+    private static final GetSecretBundleRequest REQUEST = GetSecretBundleRequest.builder().secretId("ocid1.secret.a").build();
+
+    private TestFailoverSecretsSupplier() {
+        super();
+    }
+
+    @Test
+    final void testFailoverOnServerError() throws Exception {
+        FakeSecrets e0 = new FakeSecrets().put("ocid1.secret.a", 1L, "zero");
+        FakeSecrets e1 = new FakeSecrets().put("ocid1.secret.a", 1L, "one");
+        e0.failure = new BmcException(503, "InternalServerError", "down", null);
+        Secrets secrets = failover(Duration.ofMinutes(1L), e0, e1);
+        try {
+            assertEquals(1L, secrets.getSecretBundle(REQUEST).getSecretBundle().getVersionNumber());
+            assertEquals(1, e0.getSecretBundleCalls.get());
+            assertEquals(1, e1.getSecretBundleCalls.get());
+            // The failed endpoint is benched for the cooldown period.
+            secrets.getSecretBundle(REQUEST);
+            assertEquals(1, e0.getSecretBundleCalls.get());
+            assertEquals(2, e1.getSecretBundleCalls.get());
+        } finally {
+            secrets.close();
+        }
+    }
+
+    @Test
+    final void testNoFailoverOnNotFound() throws Exception {
+        FakeSecrets e0 = new FakeSecrets();
+        FakeSecrets e1 = new FakeSecrets();
+        Secrets secrets = failover(Duration.ofMinutes(1L), e0, e1);
+        try {
+            BmcException e = assertThrows(BmcException.class, () -> secrets.getSecretBundle(REQUEST));
+            assertEquals(404, e.getStatusCode());
+            assertEquals(1, e0.getSecretBundleCalls.get());
+            assertEquals(0, e1.getSecretBundleCalls.get());
+        } finally {
+            secrets.close();
+        }
+    }
+
+    @Test
+    final void testNoFailoverOnClientSideFailure() throws Exception {
+        FakeSecrets e0 = new FakeSecrets().put("ocid1.secret.a", 1L, "zero");
+        FakeSecrets e1 = new FakeSecrets().put("ocid1.secret.a", 1L, "one");
+        e0.failure = new NullPointerException("secretId");
+        Secrets secrets = failover(Duration.ofMinutes(1L), e0, e1);
+        try {
+            assertThrows(NullPointerException.class, () -> secrets.getSecretBundle(REQUEST));
+            assertEquals(0, e1.getSecretBundleCalls.get());
+            // The endpoint was not benched.
+            e0.failure = null;
+            secrets.getSecretBundle(REQUEST);
+            assertEquals(2, e0.getSecretBundleCalls.get());
+            assertEquals(0, e1.getSecretBundleCalls.get());
+        } finally {
+            secrets.close();
+        }
+    }
+
+    @Test
+    final void testFailoverOnConnectionFailure() throws Exception {
+        FakeSecrets e0 = new FakeSecrets().put("ocid1.secret.a", 1L, "zero");
+        FakeSecrets e1 = new FakeSecrets().put("ocid1.secret.a", 1L, "one");
+        e0.failure = new UncheckedIOException(new ConnectException("Connection refused"));
+        Secrets secrets = failover(Duration.ofMinutes(1L), e0, e1);
+        try {
+            secrets.getSecretBundle(REQUEST);
+            assertEquals(1, e0.getSecretBundleCalls.get());
+            assertEquals(1, e1.getSecretBundleCalls.get());
+        } finally {
+            secrets.close();
+        }
+    }
+
+    @Test
+    final void testInterruptionIsNotAnEndpointFailure() throws Exception {
+        FakeSecrets e0 = new FakeSecrets().put("ocid1.secret.a", 1L, "zero");
+        FakeSecrets e1 = new FakeSecrets().put("ocid1.secret.a", 1L, "one");
+        e0.failure = new IllegalStateException(new InterruptedException());
+        Secrets secrets = failover(Duration.ofMinutes(1L), e0, e1);
+        try {
+            assertThrows(IllegalStateException.class, () -> secrets.getSecretBundle(REQUEST));
+            assertEquals(0, e1.getSecretBundleCalls.get());
+            // The endpoint was not benched.
+            e0.failure = null;
+            secrets.getSecretBundle(REQUEST);
+            assertEquals(2, e0.getSecretBundleCalls.get());
+            assertEquals(0, e1.getSecretBundleCalls.get());
+        } finally {
+            secrets.close();
+        }
+    }
+
+    @Test
+    final void testRecoveredEndpointWinsBackTraffic() throws Exception {
+        FakeSecrets e0 = new FakeSecrets().put("ocid1.secret.a", 1L, "zero");
+        FakeSecrets e1 = new FakeSecrets().put("ocid1.secret.a", 1L, "one");
+        e0.latency = Duration.ofMillis(100L);
+        Secrets secrets = failover(Duration.ofMillis(300L), e0, e1);
+        try {
+            // Both are measured once, in order; then the faster one gets the traffic.
+            for (int i = 0; i < 4; i++) {
+                secrets.getSecretBundle(REQUEST);
+            }
+            assertEquals(1, e0.getSecretBundleCalls.get());
+            assertEquals(3, e1.getSecretBundleCalls.get());
+
+            // The incident ends for e0, and e1 becomes the slow one.
+            e0.latency = Duration.ZERO;
+            e1.latency = Duration.ofMillis(50L);
+            Thread.sleep(400L);
+            // e1 keeps the traffic until the sixteenth request probes e0's stale measurements, after which e0 wins
+            // traffic back.
+            for (int i = 4; i < 16; i++) {
+                secrets.getSecretBundle(REQUEST);
+            }
+            assertEquals(1, e0.getSecretBundleCalls.get());
+            assertEquals(15, e1.getSecretBundleCalls.get());
+            for (int i = 16; i < 20; i++) {
+                secrets.getSecretBundle(REQUEST);
+            }
+            assertEquals(5, e0.getSecretBundleCalls.get());
+            assertEquals(15, e1.getSecretBundleCalls.get());
+        } finally {
+            secrets.close();
+        }
+    }
+
+    @Test
+    final void testSparseTrafficStillAvoidsTheSlowEndpoint() throws Exception {
+        FakeSecrets e0 = new FakeSecrets().put("ocid1.secret.a", 1L, "zero");
+        FakeSecrets e1 = new FakeSecrets().put("ocid1.secret.a", 1L, "one");
+        e0.latency = Duration.ofMillis(100L);
+        Secrets secrets = failover(Duration.ofMillis(20L), e0, e1);
+        try {
+            // Every request finds every measurement stale.
+            for (int i = 0; i < 6; i++) {
+                secrets.getSecretBundle(REQUEST);
+                Thread.sleep(50L);
+            }
+            assertEquals(1, e0.getSecretBundleCalls.get());
+            assertEquals(5, e1.getSecretBundleCalls.get());
+        } finally {
+            secrets.close();
+        }
+    }
+
+    private static Secrets failover(Duration remeasureInterval, FakeSecrets... fakes) {
+        List<Supplier<Secrets>> suppliers = List.of(fakes[0]::secrets, fakes[1]::secrets);
+        return new FailoverSecretsSupplier(suppliers, Duration.ofMinutes(1L), remeasureInterval).get();
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright © 2022–2023 Laird Nelson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ljnelson.oci.secrets.configsource;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.oracle.bmc.secrets.model.Base64SecretBundleContentDetails;
+import com.oracle.bmc.secrets.model.SecretBundle;
+import com.oracle.bmc.secrets.requests.GetSecretBundleRequest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestNodeSecretBundleCache {
+
+    private static final GetSecretBundleRequest REQUEST = GetSecretBundleRequest.builder().secretId("ocid1.secret.a").build();
+
+    private static final SecretKey KEY = new SecretKeySpec(new byte[16], "AES");
+
+    // Mirrors the file layout used by NodeSecretBundleCache, for a cache with a single slot.
+    private static final int SLOT = 64;
+
+    private static final int SEQUENCE_OFFSET = SLOT;
+
+    private static final int LEASE_OFFSET = SLOT + 8;
+
+    private TestNodeSecretBundleCache() {
+        super();
+    }
+
+    @Test
+    final void testSecondProcessHits() throws IOException {
+        Path path = file();
+        NodeSecretBundleCache a = cache(path, KEY, Duration.ofMinutes(1L), 4096);
+        NodeSecretBundleCache b = cache(path, KEY, Duration.ofMinutes(1L), 4096);
+        AtomicInteger fetches = new AtomicInteger();
+        assertEquals("one", value(a.get("p", REQUEST, () -> bundle(fetches, "one"))));
+        assertEquals("one", value(b.get("p", REQUEST, () -> bundle(fetches, "two"))));
+        assertEquals(1, fetches.get());
+        // A different principal is a different key.
+        assertEquals("three", value(b.get("q", REQUEST, () -> bundle(fetches, "three"))));
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    final void testExpiredBundleIsRefetched() throws IOException, InterruptedException {
+        Path path = file();
+        NodeSecretBundleCache a = cache(path, KEY, Duration.ofMillis(100L), 4096);
+        NodeSecretBundleCache b = cache(path, KEY, Duration.ofMillis(100L), 4096);
+        AtomicInteger fetches = new AtomicInteger();
+        a.get("p", REQUEST, () -> bundle(fetches, "one"));
+        Thread.sleep(200L);
+        assertEquals("two", value(b.get("p", REQUEST, () -> bundle(fetches, "two"))));
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    final void testWrongKeyIsAMiss() throws IOException {
+        Path path = file();
+        NodeSecretBundleCache a = cache(path, KEY, Duration.ofMinutes(1L), 4096);
+        byte[] otherKey = new byte[16];
+        Arrays.fill(otherKey, (byte) 1);
+        NodeSecretBundleCache b = cache(path, new SecretKeySpec(otherKey, "AES"), Duration.ofMinutes(1L), 4096);
+        AtomicInteger fetches = new AtomicInteger();
+        a.get("p", REQUEST, () -> bundle(fetches, "one"));
+        assertEquals("two", value(b.get("p", REQUEST, () -> bundle(fetches, "two"))));
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    final void testOversizedBundleIsNotCached() throws IOException {
+        Path path = file();
+        NodeSecretBundleCache a = cache(path, KEY, Duration.ofMinutes(1L), 512);
+        NodeSecretBundleCache b = cache(path, KEY, Duration.ofMinutes(1L), 512);
+        AtomicInteger fetches = new AtomicInteger();
+        String big = "x".repeat(1024);
+        assertEquals(big, value(a.get("p", REQUEST, () -> bundle(fetches, big))));
+        assertEquals(big, value(b.get("p", REQUEST, () -> bundle(fetches, big))));
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    final void testWaitersFetchAtOnceWhenTheLeaderCannotStore() throws IOException {
+        Path path = file();
+        NodeSecretBundleCache a = cache(path, KEY, Duration.ofMinutes(1L), 512);
+        NodeSecretBundleCache b = cache(path, KEY, Duration.ofMinutes(1L), 512);
+        AtomicInteger fetches = new AtomicInteger();
+        String big = "x".repeat(1024);
+        assertEquals(big, value(a.get("p", REQUEST, () -> bundle(fetches, big))));
+        // Another process now holds the lease, for instance to refresh the slot; b must not wait for it.
+        map(path).order(ByteOrder.nativeOrder()).putLong(LEASE_OFFSET, (System.currentTimeMillis() + 60_000L) | 1L);
+        long start = System.nanoTime();
+        assertEquals(big, value(b.get("p", REQUEST, Duration.ofSeconds(10L), () -> bundle(fetches, big))));
+        assertTrue(System.nanoTime() - start < Duration.ofSeconds(5L).toNanos());
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    final void testLeaderReclaimsSlotLeftMidWrite() throws IOException {
+        Path path = file();
+        NodeSecretBundleCache a = cache(path, KEY, Duration.ofMinutes(1L), 4096);
+        NodeSecretBundleCache b = cache(path, KEY, Duration.ofMinutes(1L), 4096);
+        // A process died while writing the slot: its sequence number is odd and its lease has expired.
+        MappedByteBuffer buffer = map(path);
+        buffer.order(ByteOrder.nativeOrder()).putLong(SEQUENCE_OFFSET, 7L).putLong(LEASE_OFFSET, 1L);
+        AtomicInteger fetches = new AtomicInteger();
+        assertEquals("one", value(a.get("p", REQUEST, () -> bundle(fetches, "one"))));
+        assertEquals(0L, buffer.getLong(SEQUENCE_OFFSET) & 1L);
+        assertEquals("one", value(b.get("p", REQUEST, () -> bundle(fetches, "two"))));
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    final void testWaiterHonorsItsDeadline() throws IOException {
+        Path path = file();
+        NodeSecretBundleCache a = cache(path, KEY, Duration.ofMinutes(1L), 4096);
+        // Another process holds the lease and is still fetching.
+        map(path).order(ByteOrder.nativeOrder()).putLong(LEASE_OFFSET, (System.currentTimeMillis() + 60_000L) | 1L);
+        long start = System.nanoTime();
+        assertThrows(IllegalStateException.class,
+                     () -> a.get("p", REQUEST, Duration.ofMillis(100L), () -> bundle(new AtomicInteger(), "one")));
+        assertTrue(System.nanoTime() - start < Duration.ofSeconds(5L).toNanos());
+    }
+
+    private static Path file() throws IOException {
+        Path path = Files.createTempFile("node-secret-bundle-cache", ".bin");
+        path.toFile().deleteOnExit();
+        return path;
+    }
+
+    private static NodeSecretBundleCache cache(Path path, SecretKey key, Duration timeToLive, int slotSize) {
+        return new NodeSecretBundleCache(path, key, timeToLive, Duration.ofMinutes(1L), 1, slotSize);
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0L, channel.size());
+        }
+    }
+
+    private static SecretBundle bundle(AtomicInteger fetches, String value) {
+        fetches.incrementAndGet();
+        return SecretBundle.builder()
+            .secretId("ocid1.secret.a")
+            .versionNumber(1L)
+            .secretBundleContent(Base64SecretBundleContentDetails.builder()
+                                 .content(Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8)))
+                                 .build())
+            .build();
+    }
+
+    private static String value(SecretBundle secretBundle) {
+        String content = ((Base64SecretBundleContentDetails) secretBundle.getSecretBundleContent()).getContent();
+        return new String(Base64.getDecoder().decode(content), StandardCharsets.UTF_8);
+    }
+
+}
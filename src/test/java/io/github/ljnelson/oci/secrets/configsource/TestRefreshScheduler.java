@@ -0,0 +1,177 @@
+/*
+ * Copyright © 2022–2023 Laird Nelson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ljnelson.oci.secrets.configsource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestRefreshScheduler {
+
+    private TestRefreshScheduler() {
+        super();
+    }
+
+    @Test
+    final void testRepeatedRunsAndCancellation() throws InterruptedException {
+        try (RefreshScheduler rs = new RefreshScheduler(Duration.ofMillis(5L), 8, 0.5, 2)) {
+            CountDownLatch latch = new CountDownLatch(3);
+            AtomicInteger runs = new AtomicInteger();
+            RefreshScheduler.Handle handle = rs.schedule(Duration.ofMillis(20L), () -> {
+                    runs.incrementAndGet();
+                    latch.countDown();
+                    return false;
+                });
+            assertTrue(latch.await(10L, TimeUnit.SECONDS));
+            handle.cancel();
+            // Allow any run already handed to a worker to finish.
+            Thread.sleep(200L);
+            int runsAfterCancel = runs.get();
+            Thread.sleep(200L);
+            assertEquals(runsAfterCancel, runs.get());
+        }
+    }
+
+    @Test
+    final void testDelayLongerThanOneRevolution() throws InterruptedException {
+        // 4 buckets of 5ms each is one revolution every 20ms; a 60ms interval must survive several revolutions.
+        try (RefreshScheduler rs = new RefreshScheduler(Duration.ofMillis(5L), 4, 0.0, 1)) {
+            CountDownLatch latch = new CountDownLatch(1);
+            long start = System.nanoTime();
+            rs.schedule(Duration.ofMillis(60L), () -> {
+                    latch.countDown();
+                    return true;
+                });
+            assertTrue(latch.await(10L, TimeUnit.SECONDS));
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 55L);
+        }
+    }
+
+    @Test
+    final void testJitterSpreadsSimultaneousTasks() throws InterruptedException {
+        try (RefreshScheduler rs = new RefreshScheduler(Duration.ofMillis(5L), 64, 0.5, 4)) {
+            int count = 20;
+            CountDownLatch latch = new CountDownLatch(count);
+            List<Long> delays = new CopyOnWriteArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                rs.schedule(Duration.ofMillis(200L), () -> {
+                        if (latch.getCount() > 0L) {
+                            delays.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                            latch.countDown();
+                        }
+                        return false;
+                    });
+            }
+            assertTrue(latch.await(10L, TimeUnit.SECONDS));
+            long min = delays.stream().mapToLong(Long::longValue).min().getAsLong();
+            long max = delays.stream().mapToLong(Long::longValue).max().getAsLong();
+            // Fifty percent jitter on 200ms puts each first run somewhere in [100ms, 300ms].
+            assertTrue(min >= 95L, "min: " + min);
+            assertTrue(max - min >= 40L, "spread: " + (max - min));
+        }
+    }
+
+    @Test
+    final void testChangesHalveTheIntervalDownToAQuarter() throws InterruptedException {
+        // Nominal 400ms; with a change every run the intervals go 400, 200, 100, 100, 100.
+        List<Long> gaps = gaps(Duration.ofMillis(400L), true, 5);
+        assertTrue(gaps.get(0) >= 195L && gaps.get(0) < 390L, "gaps: " + gaps);
+        assertTrue(gaps.get(2) >= 95L && gaps.get(2) < 195L, "gaps: " + gaps);
+        assertTrue(gaps.get(3) >= 95L && gaps.get(3) < 195L, "gaps: " + gaps);
+    }
+
+    @Test
+    final void testQuietRunsLengthenTheIntervalUpToDouble() throws InterruptedException {
+        // Nominal 40ms; without changes the intervals go 40, 60, 80, 80, 80 rather than 40, 60, 90, 135, 202.
+        List<Long> gaps = gaps(Duration.ofMillis(40L), false, 5);
+        assertTrue(gaps.get(0) >= 55L, "gaps: " + gaps);
+        assertTrue(gaps.get(1) >= 75L, "gaps: " + gaps);
+        assertTrue(gaps.get(2) >= 75L && gaps.get(2) < 130L, "gaps: " + gaps);
+        assertTrue(gaps.get(3) >= 75L && gaps.get(3) < 130L, "gaps: " + gaps);
+    }
+
+    @Test
+    final void testTasksDueInTheSameTickRunAsOneParallelBatch() throws InterruptedException {
+        int count = 4;
+        // One 100ms tick; every interval below rounds up to the same, second, tick.
+        try (RefreshScheduler rs = new RefreshScheduler(Duration.ofMillis(100L), 8, 0.0, count)) {
+            CyclicBarrier barrier = new CyclicBarrier(count);
+            CountDownLatch latch = new CountDownLatch(count);
+            AtomicInteger met = new AtomicInteger();
+            List<RefreshScheduler.Handle> handles = new CopyOnWriteArrayList<>();
+            for (int i = 0; i < count; i++) {
+                handles.add(rs.schedule(Duration.ofMillis(120L + 20L * i), () -> {
+                        try {
+                            // Only succeeds if all the tasks are running at once.
+                            barrier.await(5L, TimeUnit.SECONDS);
+                            met.incrementAndGet();
+                        } catch (BrokenBarrierException | TimeoutException e) {
+                            // Fall through; met stays short.
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        latch.countDown();
+                        return false;
+                    }));
+            }
+            assertTrue(latch.await(10L, TimeUnit.SECONDS));
+            handles.forEach(RefreshScheduler.Handle::cancel);
+            assertEquals(count, met.get());
+        }
+    }
+
+    @Test
+    final void testScheduleAfterClose() {
+        RefreshScheduler rs = new RefreshScheduler();
+        rs.close();
+        assertThrows(IllegalStateException.class, () -> rs.schedule(Duration.ofSeconds(1L), () -> false));
+    }
+
+    // Returns the milliseconds between successive runs of a task that always reports the supplied changed value.
+    private static List<Long> gaps(Duration interval, boolean changed, int runs) throws InterruptedException {
+        try (RefreshScheduler rs = new RefreshScheduler(Duration.ofMillis(5L), 64, 0.0, 1)) {
+            CountDownLatch latch = new CountDownLatch(runs);
+            List<Long> times = new CopyOnWriteArrayList<>();
+            RefreshScheduler.Handle handle = rs.schedule(interval, () -> {
+                    times.add(System.nanoTime());
+                    latch.countDown();
+                    return changed;
+                });
+            assertTrue(latch.await(10L, TimeUnit.SECONDS));
+            handle.cancel();
+            List<Long> gaps = new ArrayList<>();
+            for (int i = 1; i < runs; i++) {
+                gaps.add(TimeUnit.NANOSECONDS.toMillis(times.get(i) - times.get(i - 1)));
+            }
+            return gaps;
+        }
+    }
+
+}
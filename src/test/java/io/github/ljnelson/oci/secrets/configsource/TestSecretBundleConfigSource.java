@@ -0,0 +1,593 @@
+/*
+ * Copyright © 2022–2023 Laird Nelson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ljnelson.oci.secrets.configsource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import com.oracle.bmc.secrets.requests.GetSecretBundleRequest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestSecretBundleConfigSource {
+
+    private TestSecretBundleConfigSource() {
+        super();
+    }
+
+    @Test
+    final void testChangePublishedAfterVersionBump() throws InterruptedException {
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.a", 1L, "one");
+        try (SecretBundleConfigSource cs = new Refreshing(fake)) {
+            BlockingQueue<SecretBundleChange> changes = changes(cs);
+            assertEquals("one", cs.getValue("ocid1.secret.a"));
+            fake.put("ocid1.secret.a", 2L, "two");
+            SecretBundleChange change = changes.poll(10L, TimeUnit.SECONDS);
+            assertNotNull(change);
+            assertEquals("ocid1.secret.a", change.propertyName());
+            assertEquals(1L, change.previousVersionNumber());
+            assertEquals(2L, change.versionNumber());
+            assertEquals("two", change.value());
+            assertEquals("two", cs.getValue("ocid1.secret.a"));
+        }
+    }
+
+    @Test
+    final void testSharedRefreshSchedulerOutlivesEachSource() throws InterruptedException {
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.a", 1L, "one");
+        try (RefreshScheduler rs = new RefreshScheduler(Duration.ofMillis(50L), 64, 0.0, 2)) {
+            SecretBundleConfigSource first = new Refreshing(fake) {
+                    @Override
+                    protected RefreshScheduler refreshScheduler() {
+                        return rs;
+                    }
+                };
+            assertEquals("one", first.getValue("ocid1.secret.a"));
+            first.close();
+            try (SecretBundleConfigSource second = new Refreshing(fake) {
+                    @Override
+                    protected RefreshScheduler refreshScheduler() {
+                        return rs;
+                    }
+                }) {
+                BlockingQueue<SecretBundleChange> changes = changes(second);
+                assertEquals("one", second.getValue("ocid1.secret.a"));
+                int calls = fake.getSecretBundleCalls.get();
+                fake.put("ocid1.secret.a", 2L, "two");
+                // The scheduler was not closed with the first source, so the second one's refresh still runs...
+                assertNotNull(changes.poll(10L, TimeUnit.SECONDS));
+                // ...and only the second source's refresh runs, since the first source's task was cancelled.
+                assertEquals(calls + 1, fake.getSecretBundleCalls.get());
+            }
+        }
+    }
+
+    @Test
+    final void testReentrantLookupDuringBuilderFunctionReturnsNull() {
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.a", 1L, "one").put("ocid1.secret.b", 1L, "two");
+        AtomicReference<SecretBundleConfigSource> source = new AtomicReference<>();
+        List<String> reentrantValues = new CopyOnWriteArrayList<>();
+        try (SecretBundleConfigSource cs = new SecretBundleConfigSource(fake::secrets, pn -> {
+                // A configuration-backed builder function consults a Config that includes the source itself.
+                reentrantValues.add(String.valueOf(source.get().getValue("ocid1.secret.b")));
+                return GetSecretBundleRequest.builder().secretId(pn);
+            })) {
+            source.set(cs);
+            assertEquals("one", cs.getValue("ocid1.secret.a"));
+            assertEquals(List.of("null"), reentrantValues);
+            assertEquals(1, fake.getSecretBundleCalls.get());
+        }
+    }
+
+    @Test
+    final void testDeadlineInterruptsRemoteCall() throws InterruptedException {
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.a", 1L, "one");
+        fake.latency = Duration.ofSeconds(30L);
+        try (SecretBundleConfigSource cs = new SecretBundleConfigSource(fake::secrets,
+                                                                         pn -> GetSecretBundleRequest.builder().secretId(pn))) {
+            long start = System.nanoTime();
+            IllegalStateException e =
+                assertThrows(IllegalStateException.class, () -> cs.getValue("ocid1.secret.a", Duration.ofMillis(200L)));
+            assertTrue(e.getCause() instanceof TimeoutException);
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10L));
+            // The thread making the remote call is interrupted rather than left to run to completion.
+            for (int i = 0; i < 100 && fake.interrupted.get() == 0; i++) {
+                Thread.sleep(50L);
+            }
+            assertEquals(1, fake.interrupted.get());
+        }
+    }
+
+    @Test
+    final void testSecretNameResolvedWithOneRoundTrip() {
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.a", 1L, "one").name("ocid1.vault.v", "db-password", "ocid1.secret.a");
+        try (SecretBundleConfigSource cs = new SecretBundleConfigSource(fake::secrets, byName())) {
+            // The bundle fetched to resolve the name is the first value.
+            assertEquals("one", cs.getValue("db.password"));
+            assertEquals(1, fake.getSecretBundleByNameCalls.get());
+            assertEquals(0, fake.getSecretBundleCalls.get());
+            // Thereafter the cached OCID is used.
+            assertEquals("one", cs.getValue("db.password"));
+            assertEquals(1, fake.getSecretBundleByNameCalls.get());
+            assertEquals(1, fake.getSecretBundleCalls.get());
+        }
+    }
+
+    @Test
+    final void testSecretNameLookupHonorsTheDeadline() throws InterruptedException {
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.a", 1L, "one").name("ocid1.vault.v", "db-password", "ocid1.secret.a");
+        fake.latency = Duration.ofSeconds(30L);
+        try (SecretBundleConfigSource cs = new SecretBundleConfigSource(fake::secrets, byName())) {
+            long start = System.nanoTime();
+            IllegalStateException e =
+                assertThrows(IllegalStateException.class, () -> cs.getValue("db.password", Duration.ofMillis(200L)));
+            assertTrue(e.getCause() instanceof TimeoutException);
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10L));
+            for (int i = 0; i < 100 && fake.interrupted.get() == 0; i++) {
+                Thread.sleep(50L);
+            }
+            assertEquals(1, fake.interrupted.get());
+        }
+    }
+
+    @Test
+    final void testSecretNameLookupIsShared() {
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.a", 1L, "one").name("ocid1.vault.v", "db-password", "ocid1.secret.a");
+        String principal = UUID.randomUUID().toString();
+        SecretBundleConfigSource cs0 = new Sharing(fake, principal);
+        SecretBundleConfigSource cs1 = new Sharing(fake, principal);
+        try {
+            assertEquals("one", cs0.getValue("db.password"));
+            assertEquals("one", cs1.getValue("db.password"));
+            assertEquals(1, fake.getSecretBundleByNameCalls.get());
+            assertEquals(0, fake.getSecretBundleCalls.get());
+        } finally {
+            cs0.close();
+            cs1.close();
+        }
+    }
+
+    @Test
+    final void testNodeCacheIsUnusedWithoutAPrincipal() throws IOException {
+        Path path = Files.createTempFile("node-secret-bundle-cache", ".bin");
+        path.toFile().deleteOnExit();
+        NodeSecretBundleCache nodeCache =
+            new NodeSecretBundleCache(path, new SecretKeySpec(new byte[16], "AES"), Duration.ofMinutes(1L));
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.a", 1L, "one");
+        SecretBundleConfigSource cs0 = new NodeSharing(fake, null, nodeCache);
+        SecretBundleConfigSource cs1 = new NodeSharing(fake, null, nodeCache);
+        try {
+            assertEquals("one", cs0.getValue("ocid1.secret.a"));
+            assertEquals("one", cs1.getValue("ocid1.secret.a"));
+            assertEquals(2, fake.getSecretBundleCalls.get());
+        } finally {
+            cs0.close();
+            cs1.close();
+        }
+        String principal = UUID.randomUUID().toString();
+        cs0 = new NodeSharing(fake, principal, nodeCache);
+        cs1 = new NodeSharing(fake, principal, nodeCache);
+        try {
+            assertEquals("one", cs0.getValue("ocid1.secret.a"));
+            assertEquals("one", cs1.getValue("ocid1.secret.a"));
+            assertEquals(3, fake.getSecretBundleCalls.get());
+        } finally {
+            cs0.close();
+            cs1.close();
+        }
+    }
+
+    @Test
+    final void testTemplateReferencesAreFetchedOnceEach() {
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.user", 1L, "scott").put("ocid1.secret.password", 1L, "tiger");
+        try (SecretBundleConfigSource cs =
+             new Templating(fake, "${ocid1.secret.user}/${ocid1.secret.password}@db as ${ocid1.secret.user} ${unterminated")) {
+            assertEquals("scott/tiger@db as scott ${unterminated", cs.getValue("url"));
+            assertEquals(2, fake.getSecretBundleCalls.get());
+        }
+    }
+
+    @Test
+    final void testTemplateWithUnhandledReferenceHasNoValue() {
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.user", 1L, "scott");
+        try (SecretBundleConfigSource cs = new SecretBundleConfigSource(fake::secrets, pn -> {
+                return pn.startsWith("ocid1.") ? GetSecretBundleRequest.builder().secretId(pn) : null;
+            }) {
+                @Override
+                protected String template(String propertyName) {
+                    return propertyName.equals("url") ? "${ocid1.secret.user}/${password}" : null;
+                }
+            }) {
+            assertNull(cs.getValue("url"));
+        }
+    }
+
+    @Test
+    final void testCompositeIsReassembledWhenAReferenceChanges() throws InterruptedException {
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.user", 1L, "scott").put("ocid1.secret.password", 1L, "tiger");
+        try (SecretBundleConfigSource cs = new Templating(fake, "${ocid1.secret.user}/${ocid1.secret.password}")) {
+            BlockingQueue<SecretBundleChange> changes = changes(cs);
+            assertEquals("scott/tiger", cs.getValue("url"));
+            assertEquals("scott/tiger", cs.getValue("url"));
+            fake.put("ocid1.secret.password", 2L, "lion");
+            assertNotNull(changes.poll(10L, TimeUnit.SECONDS));
+            assertEquals("scott/lion", cs.getValue("url"));
+        }
+    }
+
+    @Test
+    final void testFailedReferenceInterruptsTheOthers() throws InterruptedException {
+        assertFailedReferenceInterruptsTheOthers("${bad}${ocid1.secret.slow}");
+    }
+
+    @Test
+    final void testFailedLaterReferenceInterruptsEarlierOnes() throws InterruptedException {
+        assertFailedReferenceInterruptsTheOthers("${ocid1.secret.slow}${bad}");
+    }
+
+    private static void assertFailedReferenceInterruptsTheOthers(String template) throws InterruptedException {
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.slow", 1L, "slow");
+        fake.latency = Duration.ofSeconds(30L);
+        try (SecretBundleConfigSource cs = new SecretBundleConfigSource(fake::secrets, pn -> {
+                if (pn.equals("bad")) {
+                    try {
+                        // Give the other reference time to start its remote call.
+                        Thread.sleep(200L);
+                    } catch (InterruptedException interruptedException) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new IllegalArgumentException(pn);
+                }
+                return GetSecretBundleRequest.builder().secretId(pn);
+            }) {
+                @Override
+                protected String template(String propertyName) {
+                    return propertyName.equals("url") ? template : null;
+                }
+            }) {
+            long start = System.nanoTime();
+            assertThrows(IllegalArgumentException.class, () -> cs.getValue("url"));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10L));
+            for (int i = 0; i < 100 && fake.interrupted.get() == 0; i++) {
+                Thread.sleep(50L);
+            }
+            assertEquals(1, fake.interrupted.get());
+        }
+    }
+
+    @Test
+    final void testPendingVersionIsStagedAndPromotedWithoutAFetch() throws InterruptedException {
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.a", 1L, "one");
+        try (SecretBundleConfigSource cs = new Refreshing(fake, GetSecretBundleRequest.Stage.Latest) {
+                @Override
+                protected boolean prestage(String propertyName) {
+                    return true;
+                }
+            }) {
+            BlockingQueue<SecretBundleChange> changes = changes(cs);
+            assertEquals("one", cs.getValue("ocid1.secret.a"));
+            assertEquals(GetSecretBundleRequest.Stage.Current, fake.requests.get(0).getStage());
+            fake.stage("ocid1.secret.a", 2L, "two");
+            // Once version 2 is staged, refreshes poll it by number.
+            for (int i = 0; i < 200 && fake.requests.stream().noneMatch(r -> Long.valueOf(2L).equals(r.getVersionNumber())); i++) {
+                Thread.sleep(50L);
+            }
+            assertEquals("one", cs.getValue("ocid1.secret.a"));
+            assertNull(changes.poll());
+            int promotedAt = fake.requests.size();
+            fake.promote("ocid1.secret.a");
+            SecretBundleChange change = changes.poll(20L, TimeUnit.SECONDS);
+            assertNotNull(change);
+            assertEquals(2L, change.versionNumber());
+            assertEquals("two", change.value());
+            assertEquals("two", cs.getValue("ocid1.secret.a"));
+            // Promotion was noticed by polling the staged version alone.
+            for (GetSecretBundleRequest request : fake.requests.subList(promotedAt, fake.requests.size())) {
+                assertEquals(2L, request.getVersionNumber());
+            }
+        }
+    }
+
+    @Test
+    final void testGroupSnapshotIsSwappedWhole() throws InterruptedException {
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.user", 1L, "scott").put("ocid1.secret.password", 1L, "tiger");
+        try (SecretBundleConfigSource cs = new Refreshing(fake)) {
+            BlockingQueue<SecretBundleChange> changes = changes(cs);
+            SecretGroup group = cs.group(List.of("ocid1.secret.user", "ocid1.secret.password"));
+            try {
+                Map<String, String> snapshot = group.snapshot();
+                assertEquals(Map.of("ocid1.secret.user", "scott", "ocid1.secret.password", "tiger"), snapshot);
+                fake.put("ocid1.secret.password", 2L, "lion");
+                SecretBundleChange change = changes.poll(20L, TimeUnit.SECONDS);
+                assertNotNull(change);
+                assertEquals("ocid1.secret.password", change.propertyName());
+                // Only one member changed, but the whole snapshot was replaced, and the old one left intact.
+                assertEquals(Map.of("ocid1.secret.user", "scott", "ocid1.secret.password", "lion"), group.snapshot());
+                assertEquals(Map.of("ocid1.secret.user", "scott", "ocid1.secret.password", "tiger"), snapshot);
+                assertNull(changes.poll());
+            } finally {
+                group.close();
+            }
+            // A closed group is no longer refreshed.
+            Thread.sleep(1500L);
+            int calls = fake.getSecretBundleCalls.get();
+            Thread.sleep(2500L);
+            assertEquals(calls, fake.getSecretBundleCalls.get());
+            assertEquals("lion", group.snapshot().get("ocid1.secret.password"));
+        }
+    }
+
+    @Test
+    final void testUnclaimedPrefetchIsNeitherCachedNorRefreshed() throws IOException, InterruptedException {
+        Path manifest = Files.createTempFile("prefetch", ".manifest");
+        manifest.toFile().deleteOnExit();
+        Files.write(manifest, List.of("ocid1.secret.a", "ocid1.secret.b"), StandardCharsets.UTF_8);
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.a", 1L, "one").put("ocid1.secret.b", 1L, "two");
+        try (Prefetching cs = new Prefetching(fake, manifest)) {
+            assertEquals("one", cs.getValue("ocid1.secret.a"));
+            for (int i = 0; i < 100 && requests(fake, "ocid1.secret.b") == 0L; i++) {
+                Thread.sleep(50L);
+            }
+            assertEquals(1L, requests(fake, "ocid1.secret.b"));
+            // Long enough for a refresh of each property, with its jitter, on a one-second tick.
+            Thread.sleep(2500L);
+            assertTrue(requests(fake, "ocid1.secret.a") > 1L);
+            assertEquals(1L, requests(fake, "ocid1.secret.b"));
+        }
+    }
+
+    @Test
+    final void testPrefetchManifestIsConsultedOnce() throws InterruptedException {
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.a", 1L, "one");
+        int threads = 8;
+        try (Prefetching cs = new Prefetching(fake, null)) {
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(threads);
+            for (int i = 0; i < threads; i++) {
+                new Thread(() -> {
+                        try {
+                            start.await();
+                            cs.getValue("ocid1.secret.a");
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            done.countDown();
+                        }
+                    }).start();
+            }
+            start.countDown();
+            assertTrue(done.await(10L, TimeUnit.SECONDS));
+            assertEquals(1, cs.manifestLookups.get());
+        }
+    }
+
+    @Test
+    final void testGzippedSecretIsInflated() throws IOException {
+        String pem = "-----BEGIN CERTIFICATE-----\n" + "MIIB".repeat(4096) + "\n-----END CERTIFICATE-----\n";
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.a", 1L, gzip(pem));
+        try (SecretBundleConfigSource cs = new SecretBundleConfigSource(fake::secrets,
+                                                                         pn -> GetSecretBundleRequest.builder().secretId(pn))) {
+            assertEquals(pem, cs.getValue("ocid1.secret.a"));
+        }
+    }
+
+    @Test
+    final void testGzipHeaderWithoutGzipBodyFailsClearly() {
+        // Its Base64 encoding begins with H4sI, but nothing after the header is a valid deflate stream.
+        byte[] content = new byte[] { 0x1f, (byte) 0x8b, 0x08, 0, 0, 0, 0, 0, 0, (byte) 0xff, 'n', 'o', 't', ' ', 'g', 'z' };
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.a", 1L, content);
+        try (SecretBundleConfigSource cs = new SecretBundleConfigSource(fake::secrets,
+                                                                         pn -> GetSecretBundleRequest.builder().secretId(pn))) {
+            UncheckedIOException e = assertThrows(UncheckedIOException.class, () -> cs.getValue("ocid1.secret.a"));
+            assertTrue(e.getMessage().contains("ocid1.secret.a"));
+        }
+    }
+
+    @Test
+    final void testTruncatedGzipSecretFailsClearly() throws IOException {
+        byte[] gzipped = gzip("-----BEGIN CERTIFICATE-----\n" + UUID.randomUUID().toString().repeat(256));
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.a", 1L, Arrays.copyOf(gzipped, gzipped.length / 2));
+        try (SecretBundleConfigSource cs = new SecretBundleConfigSource(fake::secrets,
+                                                                         pn -> GetSecretBundleRequest.builder().secretId(pn))) {
+            UncheckedIOException e = assertThrows(UncheckedIOException.class, () -> cs.getValue("ocid1.secret.a"));
+            assertTrue(e.getMessage().contains("ocid1.secret.a"));
+        }
+    }
+
+    @Test
+    final void testGzipBombIsRefused() throws IOException {
+        // A few kilobytes that inflate to sixteen mebibytes.
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.a", 1L, gzip("0".repeat(16 * 1024 * 1024)));
+        try (SecretBundleConfigSource cs = new SecretBundleConfigSource(fake::secrets,
+                                                                         pn -> GetSecretBundleRequest.builder().secretId(pn))) {
+            IllegalStateException e = assertThrows(IllegalStateException.class, () -> cs.getValue("ocid1.secret.a"));
+            assertTrue(e.getMessage().contains("ocid1.secret.a"));
+        }
+    }
+
+    private static long requests(FakeSecrets fake, String secretId) {
+        return fake.requests.stream().filter(r -> secretId.equals(r.getSecretId())).count();
+    }
+
+    private static byte[] gzip(String s) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(baos)) {
+            out.write(s.getBytes(StandardCharsets.UTF_8));
+        }
+        return baos.toByteArray();
+    }
+
+    // Resolves db.password by name.
+    private static ConfigurationBackedBuilderFunction byName() {
+        Map<String, String> properties = Map.of("db.password.secretName", "db-password", "db.password.vaultId", "ocid1.vault.v");
+        return new ConfigurationBackedBuilderFunction(() -> (name, type) -> Optional.ofNullable(properties.get(name)));
+    }
+
+    private static BlockingQueue<SecretBundleChange> changes(SecretBundleConfigSource cs) {
+        BlockingQueue<SecretBundleChange> changes = new LinkedBlockingQueue<>();
+        cs.changes().subscribe(new Flow.Subscriber<SecretBundleChange>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+                @Override
+                public void onNext(SecretBundleChange change) {
+                    changes.add(change);
+                }
+                @Override
+                public void onError(Throwable throwable) {
+                }
+                @Override
+                public void onComplete() {
+                }
+            });
+        return changes;
+    }
+
+    // Like Refreshing, but also assembles the url property from the supplied template.
+    private static final class Templating extends Refreshing {
+
+        private final String template;
+
+        private Templating(FakeSecrets fake, String template) {
+            super(fake);
+            this.template = template;
+        }
+
+        @Override
+        protected String template(String propertyName) {
+            return propertyName.equals("url") ? this.template : null;
+        }
+
+    }
+
+    // Resolves db.password by name, and shares fetched secrets with other instances for the same principal.
+    private static final class Sharing extends SecretBundleConfigSource {
+
+        private final String principal;
+
+        private Sharing(FakeSecrets fake, String principal) {
+            super(fake::secrets, byName());
+            this.principal = principal;
+        }
+
+        @Override
+        protected String sharedCachePrincipal() {
+            return this.principal;
+        }
+
+    }
+
+    // Treats every property name as a secret OCID, and shares fetched secrets through a node cache.
+    private static final class NodeSharing extends SecretBundleConfigSource {
+
+        private final String principal;
+
+        private final NodeSecretBundleCache nodeCache;
+
+        private NodeSharing(FakeSecrets fake, String principal, NodeSecretBundleCache nodeCache) {
+            super(fake::secrets, pn -> GetSecretBundleRequest.builder().secretId(pn));
+            this.principal = principal;
+            this.nodeCache = nodeCache;
+        }
+
+        @Override
+        protected String sharedCachePrincipal() {
+            return this.principal;
+        }
+
+        @Override
+        protected NodeSecretBundleCache nodeSecretBundleCache() {
+            return this.nodeCache;
+        }
+
+    }
+
+    // Refreshes every property every second, prefetches those named in a manifest, and counts lookups of the manifest.
+    private static final class Prefetching extends Refreshing {
+
+        private final Path manifest;
+
+        private final AtomicInteger manifestLookups;
+
+        private Prefetching(FakeSecrets fake, Path manifest) {
+            super(fake);
+            this.manifest = manifest;
+            this.manifestLookups = new AtomicInteger();
+        }
+
+        @Override
+        protected Path prefetchManifest() {
+            this.manifestLookups.incrementAndGet();
+            try {
+                // Widen the window in which a second thread could race this one.
+                Thread.sleep(50L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return this.manifest;
+        }
+
+    }
+
+    // Treats every property name as a secret OCID, and refreshes every property every second.
+    private static class Refreshing extends SecretBundleConfigSource {
+
+        private Refreshing(FakeSecrets fake) {
+            this(fake, null);
+        }
+
+        private Refreshing(FakeSecrets fake, GetSecretBundleRequest.Stage stage) {
+            super(fake::secrets, pn -> GetSecretBundleRequest.builder().secretId(pn).stage(stage));
+        }
+
+        @Override
+        protected Duration refreshInterval(String propertyName) {
+            return Duration.ofSeconds(1L);
+        }
+
+    }
+
+}
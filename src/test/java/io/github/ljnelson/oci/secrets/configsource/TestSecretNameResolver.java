@@ -0,0 +1,47 @@
+/*
+ * Copyright © 2022–2023 Laird Nelson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ljnelson.oci.secrets.configsource;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestSecretNameResolver {
+
+    private TestSecretNameResolver() {
+        super();
+    }
+
+    @Test
+    final void testNameIsResolvedOnce() {
+        FakeSecrets fake = new FakeSecrets().put("ocid1.secret.a", 1L, "one").name("ocid1.vault.v", "db-password", "ocid1.secret.a");
+        SecretNameResolver resolver = new SecretNameResolver(fake::secrets);
+        try {
+            assertEquals("ocid1.secret.a", resolver.apply("ocid1.vault.v", "db-password"));
+            assertEquals("ocid1.secret.a", resolver.apply("ocid1.vault.v", "db-password"));
+            assertEquals(1, fake.getSecretBundleByNameCalls.get());
+        } finally {
+            resolver.close();
+        }
+    }
+
+    @Test
+    final void testDefaultResolverNeedsAConfigSource() {
+        assertThrows(IllegalStateException.class, () -> new SecretNameResolver().apply("ocid1.vault.v", "db-password"));
+    }
+
+}
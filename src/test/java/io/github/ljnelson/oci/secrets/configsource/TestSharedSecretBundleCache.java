@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2022–2023 Laird Nelson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ljnelson.oci.secrets.configsource;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.oracle.bmc.secrets.model.SecretBundle;
+import com.oracle.bmc.secrets.requests.GetSecretBundleRequest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestSharedSecretBundleCache {
+
+    private static final long TTL = TimeUnit.MINUTES.toNanos(1L);
+
+    private static final GetSecretBundleRequest REQUEST = GetSecretBundleRequest.builder().secretId("ocid1.secret.a").build();
+
+    private TestSharedSecretBundleCache() {
+        super();
+    }
+
+    @Test
+    final void testKeyedByPrincipal() {
+        String alice = UUID.randomUUID().toString();
+        String bob = UUID.randomUUID().toString();
+        AtomicInteger fetches = new AtomicInteger();
+        Supplier<SecretBundle> fetcher = () -> bundle(fetches.incrementAndGet());
+        SecretBundle a = SharedSecretBundleCache.get(alice, REQUEST, TTL, null, fetcher);
+        assertSame(a, SharedSecretBundleCache.get(alice, REQUEST, TTL, null, fetcher));
+        SecretBundle b = SharedSecretBundleCache.get(bob, REQUEST, TTL, null, fetcher);
+        assertEquals(2L, b.getVersionNumber());
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    final void testConcurrentFetchesAreCoalesced() throws Exception {
+        String principal = UUID.randomUUID().toString();
+        AtomicInteger fetches = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<SecretBundle>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> {
+                            start.await();
+                            return SharedSecretBundleCache.get(principal, REQUEST, TTL, null, () -> {
+                                    sleep(200L);
+                                    return bundle(fetches.incrementAndGet());
+                                });
+                        }));
+            }
+            start.countDown();
+            for (Future<SecretBundle> f : futures) {
+                assertEquals(1L, f.get().getVersionNumber());
+            }
+            assertEquals(1, fetches.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    final void testFailureIsNotCached() {
+        String principal = UUID.randomUUID().toString();
+        assertThrows(IllegalArgumentException.class, () -> SharedSecretBundleCache.get(principal, REQUEST, TTL, null, () -> {
+                    throw new IllegalArgumentException();
+                }));
+        assertEquals(7L, SharedSecretBundleCache.get(principal, REQUEST, TTL, null, () -> bundle(7L)).getVersionNumber());
+    }
+
+    @Test
+    final void testWaiterHonorsItsDeadline() throws Exception {
+        String principal = UUID.randomUUID().toString();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch fetching = new CountDownLatch(1);
+            Future<SecretBundle> leader = executor.submit(() -> SharedSecretBundleCache.get(principal, REQUEST, TTL, null, () -> {
+                        fetching.countDown();
+                        sleep(2000L);
+                        return bundle(1L);
+                    }));
+            assertTrue(fetching.await(10L, TimeUnit.SECONDS));
+            long start = System.nanoTime();
+            assertThrows(IllegalStateException.class,
+                         () -> SharedSecretBundleCache.get(principal, REQUEST, TTL, Duration.ofMillis(100L), () -> bundle(2L)));
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500L));
+            assertEquals(1L, leader.get().getVersionNumber());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    final void testExpiredEntriesAreEvicted() throws InterruptedException {
+        String principal = UUID.randomUUID().toString();
+        WeakReference<SecretBundle> ref =
+            new WeakReference<>(SharedSecretBundleCache.get(principal, REQUEST, TimeUnit.MILLISECONDS.toNanos(100L), null,
+                                                            () -> bundle(1L)));
+        for (int i = 0; i < 50 && ref.get() != null; i++) {
+            Thread.sleep(100L);
+            System.gc();
+        }
+        assertNull(ref.get());
+    }
+
+    private static SecretBundle bundle(long versionNumber) {
+        return SecretBundle.builder().secretId("ocid1.secret.a").versionNumber(versionNumber).build();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(interruptedException);
+        }
+    }
+
+}
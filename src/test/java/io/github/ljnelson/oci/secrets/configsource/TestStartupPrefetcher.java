@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2022–2023 Laird Nelson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ljnelson.oci.secrets.configsource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestStartupPrefetcher {
+
+    private TestStartupPrefetcher() {
+        super();
+    }
+
+    @Test
+    final void testManifestWrittenWhenWindowCloses() throws InterruptedException, IOException {
+        Path manifest = Files.createTempDirectory("prefetch").resolve("manifest");
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            StartupPrefetcher<String> p = new StartupPrefetcher<>();
+            p.start(manifest, Duration.ofMillis(200L), pn -> pn, executor);
+            p.record("b");
+            p.record("a");
+            // Never closed, as is typical of a ConfigSource discovered with ServiceLoader.
+            for (int i = 0; i < 100 && !Files.exists(manifest); i++) {
+                Thread.sleep(50L);
+            }
+            List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+            assertEquals(List.of("a", "b"), lines.subList(1, lines.size()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    final void testPrefetchedValuesExpireWithWindow() throws ExecutionException, InterruptedException, IOException {
+        Path manifest = Files.createTempFile("prefetch", ".manifest");
+        Files.write(manifest, List.of("# comment", "a", "b"), StandardCharsets.UTF_8);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            StartupPrefetcher<String> p = new StartupPrefetcher<>();
+            p.start(manifest, Duration.ofMillis(300L), pn -> pn.toUpperCase(), executor);
+            assertEquals("A", p.take("a").get());
+            assertNull(p.take("a"));
+            Thread.sleep(500L);
+            // Fetched at startup, but first requested after the window: must be fetched afresh.
+            assertNull(p.take("b"));
+            assertTrue(Files.readAllLines(manifest, StandardCharsets.UTF_8).get(0).startsWith("#"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}